@@ -0,0 +1,69 @@
+package byow.Core;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+/* Saves worlds on a background thread so the game never waits on the disk.
+   The game thread only takes World.saveSnapshot and the slot's index entry,
+   which are cheap; encoding and writing happen on a single daemon thread,
+   through SaveStore.write, which replaces files atomically so a crash in the
+   middle of a save leaves the previous one intact.
+
+   Saves are written in the order they were asked for. If the writer falls
+   behind, a newer autosave replaces the one still waiting instead of queuing
+   behind it, since only the latest one matters. The thread never keeps the
+   game from exiting; quitting goes through saveNow, which waits for every
+   earlier save. */
+public class AutoSaver {
+    private final SaveStore store;
+    private final ExecutorService executor;
+    private final AtomicReference<Runnable> pending = new AtomicReference<>();
+
+    /* Creates a saver that writes to the slots of STORE. */
+    public AutoSaver(SaveStore store) {
+        this.store = store;
+        this.executor = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "autosaver");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /* Snapshots WORLD and writes it to SLOT in the background. */
+    public void save(World world, String slot) {
+        SaveStore.Entry entry = SaveStore.describe(slot, world);
+        Supplier<ByteBuffer> snapshot = world.saveSnapshot();
+        if (pending.getAndSet(() -> write(entry, snapshot)) == null) {
+            executor.execute(() -> pending.getAndSet(null).run());
+        }
+    }
+
+    /* Snapshots WORLD and waits until it is written to SLOT after every
+       earlier save. */
+    public void saveNow(World world, String slot) {
+        SaveStore.Entry entry = SaveStore.describe(slot, world);
+        Supplier<ByteBuffer> snapshot = world.saveSnapshot();
+        Future<?> done = executor.submit(() -> write(entry, snapshot));
+        try {
+            done.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            System.out.println(e.getCause().getMessage());
+        }
+    }
+
+    private void write(SaveStore.Entry entry, Supplier<ByteBuffer> snapshot) {
+        try {
+            store.write(entry, snapshot);
+        } catch (IOException excp) {
+            System.out.println(excp.getMessage());
+        }
+    }
+}
@@ -0,0 +1,356 @@
+package byow.Core;
+
+import byow.TileEngine.TileGrid;
+
+import java.util.Arrays;
+
+/* Incremental chase planner based on D* Lite. The search is rooted at the
+   goal (the avatar) and measures distances towards the start (the monster),
+   so the usual case of the monster stepping along its path only bumps the
+   key modifier km and needs no new search. When the avatar moves, the old
+   and new goal cells are re-evaluated and only the inconsistent cells whose
+   keys fall below the start's key are repaired. If neither end has moved
+   since the last call, the previous path is returned untouched.
+
+   All state lives in arrays indexed by x * height + y, and the priority
+   queue is a binary heap of cells keyed by a packed (k1, k2) long. */
+public class ChasePlanner {
+    private static final int INFINITY = Integer.MAX_VALUE / 4;
+
+    private final TileGrid world;
+    private final int width;
+    private final int height;
+
+    private final int[] g;
+    private final int[] rhs;
+
+    private final int[] heap;
+    private final long[] heapKey;
+    private final int[] heapIndex;
+    private int heapSize;
+
+    private int goal = -1;
+    private int start = -1;
+    private int lastStart;
+    private int km;
+    private boolean stale;
+
+    /* Cells of the current path, from goal to start, and a counter bumped
+       every time that path is rebuilt. */
+    private final int[] path;
+    private int pathLength;
+    private int version;
+
+    /* Creates a planner over WORLD. The grid is read, never written. */
+    public ChasePlanner(TileGrid world) {
+        this.world = world;
+        this.width = world.width();
+        this.height = world.height();
+        int n = width * height;
+        this.g = new int[n];
+        this.rhs = new int[n];
+        this.heap = new int[n];
+        this.heapKey = new long[n];
+        this.heapIndex = new int[n];
+        this.path = new int[n];
+        Arrays.fill(g, INFINITY);
+        Arrays.fill(rhs, INFINITY);
+        Arrays.fill(heapIndex, -1);
+    }
+
+    /* Returns the x coordinate of the Ith cell on the current path. */
+    public int pathX(int i) {
+        return path[i] / height;
+    }
+
+    /* Returns the y coordinate of the Ith cell on the current path. */
+    public int pathY(int i) {
+        return path[i] % height;
+    }
+
+    /* Returns the number of cells on the current path. */
+    public int pathLength() {
+        return pathLength;
+    }
+
+    /* Returns a counter that changes whenever the current path changes. */
+    public int version() {
+        return version;
+    }
+
+    /* Brings the path from the goal (GX, GY) to the start (SX, SY) up to date
+       and returns its length in cells, or 0 if the start cannot reach the
+       goal. Only the part of the search invalidated by the moves since the
+       last call is redone. */
+    public int plan(int gx, int gy, int sx, int sy) {
+        int newGoal = gx * height + gy;
+        int newStart = sx * height + sy;
+        if (newGoal == goal && newStart == start && !stale) {
+            return pathLength;
+        }
+        stale = false;
+
+        if (goal == -1) {
+            start = newStart;
+            lastStart = newStart;
+            goal = newGoal;
+            rhs[goal] = 0;
+            insert(goal, key(goal));
+        } else {
+            if (newStart != start) {
+                start = newStart;
+                km += manhattan(lastStart, start);
+                lastStart = start;
+            }
+            if (newGoal != goal) {
+                int oldGoal = goal;
+                goal = newGoal;
+                rhs[goal] = 0;
+                updateVertex(goal);
+                updateVertex(oldGoal);
+            }
+        }
+
+        computeShortestPath();
+        if (!tracePath()) {
+            /* The gradient walk should always reach the goal once the start is
+               consistent. If it ever does not, fall back to a clean search. */
+            reset();
+            return plan(gx, gy, sx, sy);
+        }
+        return pathLength;
+    }
+
+    /* Discards all search state; the next plan call searches from scratch. */
+    public void reset() {
+        Arrays.fill(g, INFINITY);
+        Arrays.fill(rhs, INFINITY);
+        for (int i = 0; i < heapSize; i++) {
+            heapIndex[heap[i]] = -1;
+        }
+        heapSize = 0;
+        goal = -1;
+        start = -1;
+        km = 0;
+        stale = false;
+    }
+
+    /* Re-evaluates cell (X, Y) and its neighbors after the tile there changed
+       between walkable and wall. */
+    public void cellChanged(int x, int y) {
+        if (goal == -1) {
+            return;
+        }
+        int v = x * height + y;
+        updateVertex(v);
+        if (x > 0) {
+            updateVertex(v - height);
+        }
+        if (x + 1 < width) {
+            updateVertex(v + height);
+        }
+        if (y > 0) {
+            updateVertex(v - 1);
+        }
+        if (y + 1 < height) {
+            updateVertex(v + 1);
+        }
+        stale = true;
+    }
+
+    private void computeShortestPath() {
+        while (heapSize > 0
+                && (heapKey[0] < key(start) || rhs[start] != g[start])) {
+            int u = heap[0];
+            long oldKey = heapKey[0];
+            long newKey = key(u);
+            if (oldKey < newKey) {
+                heapKey[0] = newKey;
+                sink(0);
+            } else if (g[u] > rhs[u]) {
+                g[u] = rhs[u];
+                remove(u);
+                updateNeighbors(u);
+            } else {
+                g[u] = INFINITY;
+                updateVertex(u);
+                updateNeighbors(u);
+            }
+        }
+    }
+
+    private void updateNeighbors(int v) {
+        int x = v / height;
+        int y = v % height;
+        if (x > 0) {
+            updateVertex(v - height);
+        }
+        if (x + 1 < width) {
+            updateVertex(v + height);
+        }
+        if (y > 0) {
+            updateVertex(v - 1);
+        }
+        if (y + 1 < height) {
+            updateVertex(v + 1);
+        }
+    }
+
+    private void updateVertex(int v) {
+        if (v != goal) {
+            rhs[v] = isBlocked(v) ? INFINITY : bestNeighbor(v, true);
+        }
+        if (g[v] != rhs[v]) {
+            if (heapIndex[v] == -1) {
+                insert(v, key(v));
+            } else {
+                updateKey(v, key(v));
+            }
+        } else if (heapIndex[v] != -1) {
+            remove(v);
+        }
+    }
+
+    /* Returns 1 + the smallest g among the walkable neighbors of V if COST is
+       true, otherwise the neighbor cell achieving it (-1 if there is none).
+       Neighbors are scanned in a fixed order, so ties break the same way. */
+    private int bestNeighbor(int v, boolean cost) {
+        int x = v / height;
+        int y = v % height;
+        int best = INFINITY;
+        int bestCell = -1;
+        if (x > 0 && !isBlocked(v - height) && g[v - height] < best) {
+            best = g[v - height];
+            bestCell = v - height;
+        }
+        if (x + 1 < width && !isBlocked(v + height) && g[v + height] < best) {
+            best = g[v + height];
+            bestCell = v + height;
+        }
+        if (y > 0 && !isBlocked(v - 1) && g[v - 1] < best) {
+            best = g[v - 1];
+            bestCell = v - 1;
+        }
+        if (y + 1 < height && !isBlocked(v + 1) && g[v + 1] < best) {
+            best = g[v + 1];
+            bestCell = v + 1;
+        }
+        if (cost) {
+            return best == INFINITY ? INFINITY : best + 1;
+        }
+        return bestCell;
+    }
+
+    /* Rebuilds the path buffer. Returns false if the walk got stuck. */
+    private boolean tracePath() {
+        version += 1;
+        pathLength = 0;
+        if (g[start] >= INFINITY) {
+            return true;
+        }
+
+        /* Walk from the start down the g gradient, filling the buffer from the
+           back so it ends up ordered goal first. */
+        int length = g[start] + 1;
+        int v = start;
+        path[length - 1] = v;
+        for (int i = length - 2; i >= 0; i--) {
+            v = bestNeighbor(v, false);
+            if (v == -1) {
+                return false;
+            }
+            path[i] = v;
+        }
+        if (v != goal) {
+            return false;
+        }
+        pathLength = length;
+        return true;
+    }
+
+    private boolean isBlocked(int v) {
+        return !world.isWalkable(v);
+    }
+
+    private int manhattan(int a, int b) {
+        return Math.abs(a / height - b / height) + Math.abs(a % height - b % height);
+    }
+
+    private long key(int v) {
+        int k2 = Math.min(g[v], rhs[v]);
+        int k1 = k2 + manhattan(start, v) + km;
+        return ((long) k1 << 32) | k2;
+    }
+
+    private void insert(int v, long key) {
+        heap[heapSize] = v;
+        heapKey[heapSize] = key;
+        heapIndex[v] = heapSize;
+        heapSize += 1;
+        swim(heapSize - 1);
+    }
+
+    private void updateKey(int v, long key) {
+        int i = heapIndex[v];
+        long oldKey = heapKey[i];
+        heapKey[i] = key;
+        if (key < oldKey) {
+            swim(i);
+        } else {
+            sink(i);
+        }
+    }
+
+    private void remove(int v) {
+        int i = heapIndex[v];
+        heapIndex[v] = -1;
+        heapSize -= 1;
+        if (i == heapSize) {
+            return;
+        }
+        heap[i] = heap[heapSize];
+        heapKey[i] = heapKey[heapSize];
+        heapIndex[heap[i]] = i;
+        if (i > 0 && heapKey[i] < heapKey[(i - 1) / 2]) {
+            swim(i);
+        } else {
+            sink(i);
+        }
+    }
+
+    private void swim(int i) {
+        while (i > 0) {
+            int parent = (i - 1) / 2;
+            if (heapKey[i] >= heapKey[parent]) {
+                return;
+            }
+            swap(i, parent);
+            i = parent;
+        }
+    }
+
+    private void sink(int i) {
+        while (2 * i + 1 < heapSize) {
+            int child = 2 * i + 1;
+            if (child + 1 < heapSize && heapKey[child + 1] < heapKey[child]) {
+                child += 1;
+            }
+            if (heapKey[child] >= heapKey[i]) {
+                return;
+            }
+            swap(i, child);
+            i = child;
+        }
+    }
+
+    private void swap(int i, int j) {
+        int v = heap[i];
+        long key = heapKey[i];
+        heap[i] = heap[j];
+        heapKey[i] = heapKey[j];
+        heap[j] = v;
+        heapKey[j] = key;
+        heapIndex[heap[i]] = i;
+        heapIndex[heap[j]] = j;
+    }
+}
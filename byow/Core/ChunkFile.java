@@ -0,0 +1,215 @@
+package byow.Core;
+
+import byow.TileEngine.TileGrid;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/* A world file for ChunkedWorld, memory mapped with FileChannel.map so that
+   opening it costs the same whatever the size of the world.
+
+   The file starts with a HEADER_SIZE byte header: magic, version, seed, chunk
+   size, the chunk coordinates of its lower left chunk, its size in chunks and
+   the avatar position. After it come CHUNK_BYTES bytes per chunk, one tile id
+   per cell in TileGrid's flat index order, chunks ordered column by column.
+
+   The file is created sparse and only chunks that were changed are ever
+   stored. A record that is all NOTHING has never been stored, and its chunk is
+   generated from the seed instead; a generated chunk always has floor, so a
+   stored one never looks empty. The records are mapped SEGMENT_CHUNKS at a
+   time, each segment the first time one of its chunks is touched, and pages
+   are read and written back by the operating system. */
+public class ChunkFile implements AutoCloseable {
+    public static final int MAGIC = 0x42594F43;
+    public static final int VERSION = 1;
+    public static final int DEFAULT_CHUNKS = 1024;
+
+    private static final int HEADER_SIZE = 64;
+    private static final int CHUNK_BYTES = ChunkedWorld.CHUNK_SIZE * ChunkedWorld.CHUNK_SIZE;
+    private static final int SEGMENT_CHUNKS = 1 << 16;
+
+    private static final int SEED_OFFSET = 8;
+    private static final int CHUNK_SIZE_OFFSET = 16;
+    private static final int MIN_X_OFFSET = 20;
+    private static final int MIN_Y_OFFSET = 24;
+    private static final int CHUNKS_X_OFFSET = 28;
+    private static final int CHUNKS_Y_OFFSET = 32;
+    private static final int AVATAR_OFFSET = 36;
+
+    private final FileChannel channel;
+    private final MappedByteBuffer header;
+    private final MappedByteBuffer[] segments;
+    private final long seed;
+    private final int minX;
+    private final int minY;
+    private final int chunksX;
+    private final int chunksY;
+    private final byte[] scratch = new byte[CHUNK_BYTES];
+
+    private ChunkFile(FileChannel channel) throws IOException {
+        this.channel = channel;
+        if (channel.size() < HEADER_SIZE) {
+            throw new IOException("Not a world file.");
+        }
+        this.header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+        if (header.getInt(0) != MAGIC) {
+            throw new IOException("Not a world file.");
+        }
+        int version = header.getInt(4);
+        if (version != VERSION) {
+            throw new IOException("Unsupported world file version " + version + ".");
+        }
+        this.seed = header.getLong(SEED_OFFSET);
+        this.minX = header.getInt(MIN_X_OFFSET);
+        this.minY = header.getInt(MIN_Y_OFFSET);
+        this.chunksX = header.getInt(CHUNKS_X_OFFSET);
+        this.chunksY = header.getInt(CHUNKS_Y_OFFSET);
+        long chunks = (long) chunksX * chunksY;
+        if (header.getInt(CHUNK_SIZE_OFFSET) != ChunkedWorld.CHUNK_SIZE
+                || chunksX <= 0 || chunksY <= 0
+                || channel.size() != HEADER_SIZE + chunks * CHUNK_BYTES) {
+            throw new IOException("Corrupt world file header.");
+        }
+        this.segments = new MappedByteBuffer[(int) ((chunks + SEGMENT_CHUNKS - 1) / SEGMENT_CHUNKS)];
+    }
+
+    /* Creates a world file at PATH for SEED covering CHUNKSX x CHUNKSY chunks
+       around chunk (0, 0), replacing any file there, and opens it. */
+    public static ChunkFile create(Path path, long seed, int chunksX, int chunksY)
+            throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        try {
+            ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE);
+            buffer.putInt(MAGIC).putInt(VERSION).putLong(seed)
+                    .putInt(ChunkedWorld.CHUNK_SIZE)
+                    .putInt(-chunksX / 2).putInt(-chunksY / 2)
+                    .putInt(chunksX).putInt(chunksY)
+                    .putInt(Integer.MIN_VALUE).putInt(Integer.MIN_VALUE);
+            buffer.clear();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            /* Writing the last byte sets the size without touching the rest. */
+            long size = HEADER_SIZE + (long) chunksX * chunksY * CHUNK_BYTES;
+            channel.write(ByteBuffer.allocate(1), size - 1);
+            return new ChunkFile(channel);
+        } catch (IOException | RuntimeException excp) {
+            channel.close();
+            throw excp;
+        }
+    }
+
+    /* Opens the world file at PATH. */
+    public static ChunkFile open(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        try {
+            return new ChunkFile(channel);
+        } catch (IOException | RuntimeException excp) {
+            channel.close();
+            throw excp;
+        }
+    }
+
+    public long seed() {
+        return seed;
+    }
+
+    /* Returns true if chunk (CX, CY) lies inside the file. */
+    public boolean contains(int cx, int cy) {
+        return cx >= minX && cx - minX < chunksX && cy >= minY && cy - minY < chunksY;
+    }
+
+    /* Returns the saved avatar position as {x, y}, or null if none was saved. */
+    public int[] avatar() {
+        int x = header.getInt(AVATAR_OFFSET);
+        int y = header.getInt(AVATAR_OFFSET + 4);
+        return x == Integer.MIN_VALUE ? null : new int[]{x, y};
+    }
+
+    public void setAvatar(int x, int y) {
+        header.putInt(AVATAR_OFFSET, x);
+        header.putInt(AVATAR_OFFSET + 4, y);
+    }
+
+    /* Reads chunk (CX, CY) into GRID and returns true, or returns false and
+       leaves GRID alone if the chunk was never stored. */
+    public boolean load(int cx, int cy, TileGrid grid) throws IOException {
+        ByteBuffer record = record(cx, cy);
+        record.get(scratch);
+        boolean stored = false;
+        for (byte id : scratch) {
+            if (id != TileGrid.NOTHING) {
+                stored = true;
+                break;
+            }
+        }
+        if (!stored) {
+            return false;
+        }
+        int v = 0;
+        while (v < CHUNK_BYTES) {
+            byte id = scratch[v];
+            int end = v + 1;
+            while (end < CHUNK_BYTES && scratch[end] == id) {
+                end += 1;
+            }
+            if (id < 0 || id > TileGrid.SAND) {
+                throw new IOException("Corrupt tile data in world file.");
+            }
+            grid.setRun(v, end, id);
+            v = end;
+        }
+        return true;
+    }
+
+    /* Writes the tile ids of GRID as chunk (CX, CY). */
+    public void store(int cx, int cy, TileGrid grid) throws IOException {
+        for (int v = 0; v < CHUNK_BYTES; v++) {
+            scratch[v] = grid.get(v);
+        }
+        record(cx, cy).put(scratch);
+    }
+
+    /* Forces everything written so far out to the disk. */
+    public void flush() {
+        header.force();
+        for (MappedByteBuffer segment : segments) {
+            if (segment != null) {
+                segment.force();
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        flush();
+        channel.close();
+    }
+
+    /* Returns a buffer positioned at the record of chunk (CX, CY), mapping its
+       segment if this is the first touch. */
+    private ByteBuffer record(int cx, int cy) throws IOException {
+        if (!contains(cx, cy)) {
+            throw new IndexOutOfBoundsException("Chunk (" + cx + ", " + cy
+                    + ") is outside the world file.");
+        }
+        long chunk = (long) (cx - minX) * chunksY + (cy - minY);
+        int s = (int) (chunk / SEGMENT_CHUNKS);
+        if (segments[s] == null) {
+            long first = (long) s * SEGMENT_CHUNKS;
+            long count = Math.min(SEGMENT_CHUNKS, (long) chunksX * chunksY - first);
+            segments[s] = channel.map(FileChannel.MapMode.READ_WRITE,
+                    HEADER_SIZE + first * CHUNK_BYTES, count * CHUNK_BYTES);
+        }
+        ByteBuffer record = segments[s].duplicate();
+        record.position((int) (chunk % SEGMENT_CHUNKS) * CHUNK_BYTES);
+        return record;
+    }
+}
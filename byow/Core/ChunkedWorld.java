@@ -0,0 +1,340 @@
+package byow.Core;
+
+import byow.TileEngine.TETile;
+import byow.TileEngine.TileGrid;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+/* An endless world made of CHUNK_SIZE x CHUNK_SIZE chunks that are generated
+   on demand. Each chunk gets its own Random, seeded from (world seed, chunk x,
+   chunk y), so a chunk always comes out the same no matter which chunks were
+   generated before it. Generated chunks are kept in a least-recently-used
+   cache of at most maxChunks chunks. A chunk that falls out of the cache is
+   simply generated again when it is next needed, so memory stays bounded
+   however far the avatar walks.
+
+   A chunk holds a few chambers joined by hallways along a minimum spanning
+   tree, like a small World. Neighboring chunks are stitched together through
+   one portal per shared border. The portal's position only depends on the
+   world seed and the border, so both chunks agree on it without either one
+   being generated first. Every chunk runs a hallway from its nearest chamber
+   out to each of its four portals. Chambers and hallways stay off the outer
+   ring of the chunk, so nothing but the portals touches a border.
+
+   A world backed by a ChunkFile is bounded by the file. Chunks are read from
+   the file when it has them, changed chunks are written back to it when they
+   fall out of the cache or on flush, and everything outside the file is
+   NOTHING. */
+public class ChunkedWorld {
+    public static final int CHUNK_SIZE = 32;
+    public static final int DEFAULT_MAX_CHUNKS = 64;
+
+    /* Chamber floors stay this far from the chunk border, so chamber walls
+       never reach the outer two rings. */
+    private static final int MARGIN = 3;
+    private static final int MAX_PLACEMENT_ATTEMPTS = 200;
+
+    private static final int VERTICAL_BORDER = 0;
+    private static final int HORIZONTAL_BORDER = 1;
+
+    private final long seed;
+    private final Map<Long, TileGrid> chunks;
+    private final ChunkFile file;
+    private final Set<Long> dirty = new HashSet<>();
+    private final TileGrid outside = new TileGrid(CHUNK_SIZE, CHUNK_SIZE);
+    private long generated;
+
+    /* Creates an endless world for SEED that caches at most MAXCHUNKS chunks. */
+    public ChunkedWorld(long seed, int maxChunks) {
+        this(seed, null, maxChunks);
+    }
+
+    /* Creates a world backed by FILE that caches at most MAXCHUNKS chunks. */
+    public ChunkedWorld(ChunkFile file, int maxChunks) {
+        this(file.seed(), file, maxChunks);
+    }
+
+    private ChunkedWorld(long seed, ChunkFile file, int maxChunks) {
+        this.seed = seed;
+        this.file = file;
+        this.chunks = new LinkedHashMap<Long, TileGrid>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, TileGrid> eldest) {
+                if (size() <= maxChunks) {
+                    return false;
+                }
+                if (dirty.remove(eldest.getKey())) {
+                    long key = eldest.getKey();
+                    store((int) (key >> 32), (int) key, eldest.getValue());
+                }
+                return true;
+            }
+        };
+    }
+
+    /* Returns the tile id at world cell (X, Y). */
+    public byte get(int x, int y) {
+        TileGrid chunk = chunk(Math.floorDiv(x, CHUNK_SIZE), Math.floorDiv(y, CHUNK_SIZE));
+        return chunk.get(Math.floorMod(x, CHUNK_SIZE), Math.floorMod(y, CHUNK_SIZE));
+    }
+
+    /* Sets world cell (X, Y) to ID. Only a world backed by a file keeps the
+       change once the chunk leaves the cache. */
+    public void set(int x, int y, byte id) {
+        int cx = Math.floorDiv(x, CHUNK_SIZE);
+        int cy = Math.floorDiv(y, CHUNK_SIZE);
+        TileGrid chunk = chunk(cx, cy);
+        if (chunk == outside) {
+            throw new IndexOutOfBoundsException("Cell (" + x + ", " + y
+                    + ") is outside the world file.");
+        }
+        chunk.set(Math.floorMod(x, CHUNK_SIZE), Math.floorMod(y, CHUNK_SIZE), id);
+        if (file != null) {
+            dirty.add(key(cx, cy));
+        }
+    }
+
+    /* Returns true if the avatar can stand on world cell (X, Y). */
+    public boolean isWalkable(int x, int y) {
+        byte id = get(x, y);
+        return id != TileGrid.WALL && id != TileGrid.NOTHING;
+    }
+
+    /* Returns the chunk with chunk coordinates (CX, CY), generating it if it
+       is not cached. */
+    public TileGrid chunk(int cx, int cy) {
+        if (file != null && !file.contains(cx, cy)) {
+            return outside;
+        }
+        long key = key(cx, cy);
+        TileGrid chunk = chunks.get(key);
+        if (chunk == null) {
+            chunk = file == null ? null : load(cx, cy);
+            if (chunk == null) {
+                chunk = generateChunk(cx, cy);
+            }
+            chunks.put(key, chunk);
+        }
+        return chunk;
+    }
+
+    /* Writes every changed chunk in the cache back to the file, if any, and
+       forces the file out to the disk. */
+    public void flush() {
+        if (file == null) {
+            return;
+        }
+        for (long key : dirty) {
+            store((int) (key >> 32), (int) key, chunks.get(key));
+        }
+        dirty.clear();
+        file.flush();
+    }
+
+    /* Returns the number of chunks currently cached. */
+    public int cachedChunks() {
+        return chunks.size();
+    }
+
+    /* Returns the number of chunks generated so far, regenerations included. */
+    public long generatedChunks() {
+        return generated;
+    }
+
+    /* Fills OUT with the tiles of the OUT.length x OUT[0].length window whose
+       lower left corner is world cell (X0, Y0), and returns it. */
+    public TETile[][] view(int x0, int y0, TETile[][] out) {
+        int width = out.length;
+        int height = out[0].length;
+        for (int cx = Math.floorDiv(x0, CHUNK_SIZE);
+             cx <= Math.floorDiv(x0 + width - 1, CHUNK_SIZE); cx++) {
+            for (int cy = Math.floorDiv(y0, CHUNK_SIZE);
+                 cy <= Math.floorDiv(y0 + height - 1, CHUNK_SIZE); cy++) {
+                TileGrid chunk = chunk(cx, cy);
+                int baseX = cx * CHUNK_SIZE;
+                int baseY = cy * CHUNK_SIZE;
+                int fromX = Math.max(x0, baseX);
+                int toX = Math.min(x0 + width, baseX + CHUNK_SIZE);
+                int fromY = Math.max(y0, baseY);
+                int toY = Math.min(y0 + height, baseY + CHUNK_SIZE);
+                for (int x = fromX; x < toX; x++) {
+                    for (int y = fromY; y < toY; y++) {
+                        out[x - x0][y - y0] = chunk.tile(x - baseX, y - baseY);
+                    }
+                }
+            }
+        }
+        return out;
+    }
+
+    /* Returns a floor cell of chunk (0, 0) to start on, as {x, y}. */
+    public int[] findSpawn() {
+        TileGrid origin = chunk(0, 0);
+        for (int x = MARGIN; x < CHUNK_SIZE - MARGIN; x++) {
+            if (!origin.anyFloor(x, MARGIN, CHUNK_SIZE - MARGIN - 1)) {
+                continue;
+            }
+            for (int y = MARGIN; y < CHUNK_SIZE - MARGIN; y++) {
+                if (origin.get(x, y) == TileGrid.FLOOR) {
+                    return new int[]{x, y};
+                }
+            }
+        }
+        throw new IllegalStateException("Chunk (0, 0) has no floor.");
+    }
+
+    private static long key(int cx, int cy) {
+        return ((long) cx << 32) | (cy & 0xFFFFFFFFL);
+    }
+
+    private TileGrid load(int cx, int cy) {
+        TileGrid chunk = new TileGrid(CHUNK_SIZE, CHUNK_SIZE);
+        try {
+            return file.load(cx, cy, chunk) ? chunk : null;
+        } catch (IOException excp) {
+            throw new UncheckedIOException(excp);
+        }
+    }
+
+    private void store(int cx, int cy, TileGrid chunk) {
+        try {
+            file.store(cx, cy, chunk);
+        } catch (IOException excp) {
+            throw new UncheckedIOException(excp);
+        }
+    }
+
+    private TileGrid generateChunk(int cx, int cy) {
+        generated += 1;
+        Random random = new Random(mix(mix(mix(seed) ^ cx) ^ cy));
+        TileGrid grid = new TileGrid(CHUNK_SIZE, CHUNK_SIZE);
+
+        /* Chambers, kept apart as in World: with their walls, no two may
+           touch. Rooms are carved as they are placed and nothing else is
+           floor yet, so that is no floor within three cells of the room. */
+        int target = RandomUtils.uniform(random, 2, 5);
+        int[] centerX = new int[target];
+        int[] centerY = new int[target];
+        int count = 0;
+        for (int i = 0; i < MAX_PLACEMENT_ATTEMPTS && count < target; i++) {
+            int w = RandomUtils.uniform(random, 3, 9);
+            int h = RandomUtils.uniform(random, 3, 9);
+            int left = RandomUtils.uniform(random, MARGIN, CHUNK_SIZE - MARGIN - w + 1);
+            int bottom = RandomUtils.uniform(random, MARGIN, CHUNK_SIZE - MARGIN - h + 1);
+            if (grid.anyFloor(left - 3, bottom - 3, left + w + 2, bottom + h + 2)) {
+                continue;
+            }
+            carveRoom(grid, left, bottom, w, h);
+            centerX[count] = left + w / 2;
+            centerY[count] = bottom + h / 2;
+            count += 1;
+        }
+        if (count == 0) {
+            carveRoom(grid, CHUNK_SIZE / 2 - 1, CHUNK_SIZE / 2 - 1, 3, 3);
+            centerX[0] = CHUNK_SIZE / 2;
+            centerY[0] = CHUNK_SIZE / 2;
+            count = 1;
+        }
+
+        int[] xs = Arrays.copyOf(centerX, count);
+        int[] ys = Arrays.copyOf(centerY, count);
+        for (Edge e : Graph.manhattanMST(xs, ys).getAllEdges()) {
+            carveHallway(grid, xs[e.getSource()], ys[e.getSource()],
+                    xs[e.getDest()], ys[e.getDest()]);
+        }
+
+        /* Portals: east and west sit on vertical borders, north and south on
+           horizontal ones. A hallway runs straight in from each portal for
+           three cells and then on to the nearest chamber. */
+        int east = portal(VERTICAL_BORDER, cx, cy);
+        int west = portal(VERTICAL_BORDER, cx - 1, cy);
+        int north = portal(HORIZONTAL_BORDER, cx, cy);
+        int south = portal(HORIZONTAL_BORDER, cx, cy - 1);
+        int last = CHUNK_SIZE - 1;
+        connectPortal(grid, last, east, last - 3, east, xs, ys);
+        connectPortal(grid, 0, west, 3, west, xs, ys);
+        connectPortal(grid, north, last, north, last - 3, xs, ys);
+        connectPortal(grid, south, 0, south, 3, xs, ys);
+
+        buildWalls(grid);
+        return grid;
+    }
+
+    /* Returns the offset along the border of the portal between chunk (CX, CY)
+       and its east neighbor (KIND = VERTICAL_BORDER) or north neighbor
+       (KIND = HORIZONTAL_BORDER). */
+    private int portal(int kind, int cx, int cy) {
+        long h = mix(mix(mix(seed ^ 0x5DEECE66DL) ^ kind) ^ cx) ^ cy;
+        return MARGIN + (int) Math.floorMod(mix(h), (long) (CHUNK_SIZE - 2 * MARGIN));
+    }
+
+    private static void connectPortal(TileGrid grid, int px, int py, int ix, int iy,
+                                      int[] xs, int[] ys) {
+        int nearest = 0;
+        for (int i = 1; i < xs.length; i++) {
+            if (Math.abs(xs[i] - ix) + Math.abs(ys[i] - iy)
+                    < Math.abs(xs[nearest] - ix) + Math.abs(ys[nearest] - iy)) {
+                nearest = i;
+            }
+        }
+        carveHallway(grid, px, py, ix, iy);
+        carveHallway(grid, ix, iy, xs[nearest], ys[nearest]);
+    }
+
+    private static void carveRoom(TileGrid grid, int left, int bottom, int w, int h) {
+        for (int x = left; x < left + w; x++) {
+            for (int y = bottom; y < bottom + h; y++) {
+                grid.set(x, y, TileGrid.FLOOR);
+            }
+        }
+    }
+
+    /* Carves an L-shaped hallway from (X1, Y1) to (X2, Y2), first along x. */
+    private static void carveHallway(TileGrid grid, int x1, int y1, int x2, int y2) {
+        int step = x2 >= x1 ? 1 : -1;
+        for (int x = x1; x != x2; x += step) {
+            grid.set(x, y1, TileGrid.FLOOR);
+        }
+        step = y2 >= y1 ? 1 : -1;
+        for (int y = y1; y != y2; y += step) {
+            grid.set(x2, y, TileGrid.FLOOR);
+        }
+        grid.set(x2, y2, TileGrid.FLOOR);
+    }
+
+    /* Turns every empty cell next to a floor, diagonals included, into wall. */
+    private static void buildWalls(TileGrid grid) {
+        for (int x = 0; x < CHUNK_SIZE; x++) {
+            for (int y = 0; y < CHUNK_SIZE; y++) {
+                if (grid.get(x, y) != TileGrid.NOTHING) {
+                    continue;
+                }
+                boolean nearFloor = false;
+                for (int dx = -1; dx <= 1 && !nearFloor; dx++) {
+                    for (int dy = -1; dy <= 1 && !nearFloor; dy++) {
+                        nearFloor = grid.inBounds(x + dx, y + dy)
+                                && grid.get(x + dx, y + dy) == TileGrid.FLOOR;
+                    }
+                }
+                if (nearFloor) {
+                    grid.set(x, y, TileGrid.WALL);
+                }
+            }
+        }
+    }
+
+    /* SplitMix64 finalizer, used to derive independent seeds. */
+    private static long mix(long z) {
+        z += 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -0,0 +1,120 @@
+package byow.Core;
+
+import byow.TileEngine.TileGrid;
+
+import java.util.Arrays;
+
+/* A breadth-first distance field over a TileGrid world, rooted at a single
+   cell (the avatar). dist holds, for every cell x * height + y, the number of
+   steps to the root, or UNREACHABLE. The field is rebuilt only when the root
+   moves or a tile changes, after which any number of chasers can pick their
+   next step in O(1) by reading their four neighbors. */
+public class DistanceField {
+    public static final int UNREACHABLE = Integer.MAX_VALUE;
+
+    private final TileGrid world;
+    private final int width;
+    private final int height;
+
+    private final int[] dist;
+    private final int[] queue;
+    private int root = -1;
+
+    /* Creates an empty field over WORLD. The grid is read, never written. */
+    public DistanceField(TileGrid world) {
+        this.world = world;
+        this.width = world.width();
+        this.height = world.height();
+        this.dist = new int[width * height];
+        this.queue = new int[width * height];
+    }
+
+    /* Roots the field at (X, Y), rebuilding it only if the root has moved
+       since the last call. */
+    public void setRoot(int x, int y) {
+        int v = x * height + y;
+        if (v != root) {
+            root = v;
+            rebuild();
+        }
+    }
+
+    /* Forces a rebuild on the next setRoot, e.g. after a wall was removed. */
+    public void invalidate() {
+        root = -1;
+    }
+
+    /* Returns the number of steps from (X, Y) to the root. */
+    public int distance(int x, int y) {
+        return dist[x * height + y];
+    }
+
+    /* Returns the cell a chaser at (X, Y) should step to in order to get one
+       step closer to the root, as x * height + y, or -1 if (X, Y) is the root
+       or cannot reach it. */
+    public int nextStep(int x, int y) {
+        int v = x * height + y;
+        int best = dist[v];
+        if (best == 0 || best == UNREACHABLE) {
+            return -1;
+        }
+        int bestCell = -1;
+        if (x > 0 && dist[v - height] < best) {
+            best = dist[v - height];
+            bestCell = v - height;
+        }
+        if (x + 1 < width && dist[v + height] < best) {
+            best = dist[v + height];
+            bestCell = v + height;
+        }
+        if (y > 0 && dist[v - 1] < best) {
+            best = dist[v - 1];
+            bestCell = v - 1;
+        }
+        if (y + 1 < height && dist[v + 1] < best) {
+            bestCell = v + 1;
+        }
+        return bestCell;
+    }
+
+    /* Returns the height of the grid, for decoding cells returned by nextStep. */
+    public int height() {
+        return height;
+    }
+
+    private void rebuild() {
+        Arrays.fill(dist, UNREACHABLE);
+        int head = 0;
+        int tail = 0;
+        dist[root] = 0;
+        queue[tail++] = root;
+
+        while (head < tail) {
+            int v = queue[head++];
+            int x = v / height;
+            int y = v % height;
+            int next = dist[v] + 1;
+            if (x > 0) {
+                tail = visit(v - height, next, tail);
+            }
+            if (x + 1 < width) {
+                tail = visit(v + height, next, tail);
+            }
+            if (y > 0) {
+                tail = visit(v - 1, next, tail);
+            }
+            if (y + 1 < height) {
+                tail = visit(v + 1, next, tail);
+            }
+        }
+    }
+
+    private int visit(int v, int d, int tail) {
+        if (dist[v] != UNREACHABLE || !world.isWalkable(v)) {
+            return tail;
+        }
+        dist[v] = d;
+        queue[tail] = v;
+        return tail + 1;
+    }
+}
@@ -50,11 +50,12 @@ public class Edge implements Comparable<Edge> {
                || (src == e.dest && dest == e.src && weight == e.weight);
     }
 
-    /* Returns the hashcode for this instance. */
+    /* Returns the hashcode for this instance. Symmetric in the endpoints,
+       like equals, so an edge and its dual hash alike. */
     public int hashCode() {
-        int hash = src ^ (src >>> 32);
-        hash = 31 * hash + dest ^ (dest >>> 32);
-        hash = 31 * hash + weight ^ (weight >>> 32);
+        int hash = Math.min(src, dest);
+        hash = 31 * hash + Math.max(src, dest);
+        hash = 31 * hash + weight;
         return hash;
     }
 
@@ -2,20 +2,48 @@ package byow.Core;
 
 import byow.TileEngine.TERenderer;
 import byow.TileEngine.TETile;
-import byow.TileEngine.Tileset;
+import byow.TileEngine.TileGrid;
+import byow.TileEngine.Viewport;
 import edu.princeton.cs.algs4.StdDraw;
 
 import java.awt.*;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
 
 public class Engine {
     TERenderer ter = new TERenderer();
     /* Feel free to change the width and height. */
     public static final int WIDTH = 80;
     public static final int HEIGHT = 30;
+    /* Size of new worlds, from the menu and from input strings alike. The
+       screen shows a WIDTH x HEIGHT window of the world that follows the
+       avatar. A World keeps its whole grid and the search arrays of its
+       PathFinder, ChasePlanner, DistanceField and MonsterSwarm in memory, up
+       to about 80 bytes per cell, so sizes up to about 1000 x 1000 are
+       supported; larger maps belong in a ChunkedWorld. */
+    public static final int WORLD_WIDTH = 2 * WIDTH;
+    public static final int WORLD_HEIGHT = 2 * HEIGHT;
+
+    /* Rows at the top of the screen covered by the description text. */
+    private static final int TEXT_ROWS = 2;
+    private static final Font TEXT_FONT = new Font("Monaco", Font.BOLD, 20);
+    /* Time between autosaves while playing with the keyboard. */
+    private static final long AUTOSAVE_MILLIS = 30_000;
+    /* Saves listed per page of the load menu, picked with keys 1 to 9. */
+    private static final int SAVES_PER_PAGE = 9;
 
     private boolean gameOver;
+    private final WorldPregenerator pregenerator = new WorldPregenerator();
+    private final SaveStore saves = new SaveStore(SaveStore.defaultDir(), World.savePath());
+    private final AutoSaver autosaver = new AutoSaver(saves);
+    private long lastAutosave;
+    /* The save slot the world being played is saved to. */
+    private String slot;
 
     /**
      * Method used for exploring a fresh world. This method should handle all inputs,
@@ -50,10 +78,10 @@ public class Engine {
      */
     public TETile[][] interactWithInputString(String input) {
         String ch = input.substring(0, 1);
-        World world = new World(WIDTH, HEIGHT, 12345);
+        World world;
 
         if (ch.equals("n") || ch.equals("N")) {
-            world = new World(WIDTH, HEIGHT, extractSeed(input));
+            world = new World(WORLD_WIDTH, WORLD_HEIGHT, extractSeed(input));
 
             playWorldWithInputString(world,
                     input.substring(Math.min(input.indexOf("s"), input.indexOf("S")) + 1));
@@ -63,6 +91,8 @@ public class Engine {
 
             playWorldWithInputString(world, input.substring(1));
 
+        } else {
+            world = new World(WORLD_WIDTH, WORLD_HEIGHT, 12345);
         }
 
         return world.getWorld();
@@ -207,12 +237,22 @@ public class Engine {
 
         } else if (ch.equals("n") || ch.equals("N")) {
             String input = solicitSeedInput();
-            World world = new World(WIDTH, HEIGHT, Long.parseLong(input));
+            long seed = Long.parseLong(input);
+            Future<World> world = pregenerator.submit(WORLD_WIDTH, WORLD_HEIGHT, seed);
+            slot = SaveStore.slotFor(seed);
 
             drawMode(world);
 
         } else if (ch.equals("l") || ch.equals("L")) {
-            World world = World.readWorld();
+            List<SaveStore.Entry> entries = saves.list();
+            String picked = entries.isEmpty() ? null : pickSave(entries);
+            World world = picked == null ? null : saves.load(picked);
+            if (world == null) {
+                drawMenu();
+                return;
+            }
+            /* The latest save is only a copy; go on in a slot of its own. */
+            slot = picked.equals(SaveStore.LATEST) ? SaveStore.slotFor(world.getSeed()) : picked;
 
             drawMode(world);
 
@@ -221,6 +261,51 @@ public class Engine {
         }
     }
 
+    /**
+     * Lists ENTRIES, newest first, SAVES_PER_PAGE to a page. Keys 1 to 9
+     * pick a save, N and P turn the page and M goes back.
+     * @return the slot picked, or null to go back to the main menu
+     */
+    private String pickSave(List<SaveStore.Entry> entries) {
+        int pages = (entries.size() + SAVES_PER_PAGE - 1) / SAVES_PER_PAGE;
+        int page = 0;
+        while (true) {
+            StdDraw.setXscale(0, WIDTH);
+            StdDraw.setYscale(0, HEIGHT);
+            StdDraw.clear(Color.BLACK);
+            StdDraw.setPenColor(Color.WHITE);
+            StdDraw.setFont(new Font("Monaco", Font.BOLD, 30));
+            StdDraw.text(WIDTH / 2, HEIGHT * 11 / 12,
+                    "Load(" + (page + 1) + "/" + pages + ")");
+            StdDraw.setFont(TEXT_FONT);
+            int first = page * SAVES_PER_PAGE;
+            int count = Math.min(SAVES_PER_PAGE, entries.size() - first);
+            for (int i = 0; i < count; i++) {
+                SaveStore.Entry e = entries.get(first + i);
+                String moves = e.moves < 0 ? "?" : Integer.toString(e.moves);
+                String name = e.slot.equals(SaveStore.LATEST) ? "   (latest)" : "";
+                StdDraw.textLeft(4, HEIGHT * (10 - i) / 12.0, String.format(
+                        "%d. seed %d   %dx%d   %s moves   %tF %<tR%s",
+                        i + 1, e.seed, e.width, e.height, moves, e.timestamp, name));
+            }
+            drawBottomText("(1-" + count + " load, N/P page, M menu)");
+
+            while (!StdDraw.hasNextKeyTyped()) {
+                StdDraw.pause(50);
+            }
+            char ch = Character.toLowerCase(StdDraw.nextKeyTyped());
+            if (ch >= '1' && ch < '1' + count) {
+                return entries.get(first + ch - '1').slot;
+            } else if (ch == 'n' && page + 1 < pages) {
+                page += 1;
+            } else if (ch == 'p' && page > 0) {
+                page -= 1;
+            } else if (ch == 'm') {
+                return null;
+            }
+        }
+    }
+
     public void drawFrame(String s) {
         StdDraw.setXscale(0, WIDTH);
         StdDraw.setYscale(0, HEIGHT);
@@ -233,6 +318,15 @@ public class Engine {
     }
 
     public void drawMode(World world) {
+        drawMode(CompletableFuture.completedFuture(world));
+    }
+
+    /**
+     * Lets the player pick a mode while the world is still being generated in
+     * the background, then waits for it and starts the game.
+     * @param pending the world, as returned by WorldPregenerator.submit
+     */
+    public void drawMode(Future<World> pending) {
         StdDraw.setXscale(0, WIDTH);
         StdDraw.setYscale(0, HEIGHT);
         StdDraw.clear(Color.BLACK);
@@ -264,7 +358,11 @@ public class Engine {
                 break;
             }
         }
-        playWorldWithKeyboard(world, speed);
+        if (!pending.isDone()) {
+            drawFrame("Generating world...");
+            StdDraw.show();
+        }
+        playWorldWithKeyboard(WorldPregenerator.await(pending), speed);
     }
 
     public String solicitSeedInput() {
@@ -289,9 +387,19 @@ public class Engine {
 
     private void drawUpLeftText(String s) {
         StdDraw.setPenColor(Color.WHITE);
-        Font fontSmall = new Font("Monaco", Font.BOLD, 20);
-        StdDraw.setFont(fontSmall);
+        StdDraw.setFont(TEXT_FONT);
         StdDraw.textLeft(0, this.HEIGHT - 1, s);
+    }
+
+    /**
+     * Draws FRAME with S in the upper left corner and shows both at once. The
+     * renderer only repaints tiles that changed, so the rows under the text are
+     * marked for repainting first to erase the previous text.
+     */
+    private void renderFrameWithText(TETile[][] frame, String s) {
+        ter.invalidate(0, HEIGHT - TEXT_ROWS, WIDTH, HEIGHT);
+        ter.drawTiles(frame);
+        drawUpLeftText(s);
         StdDraw.show();
     }
 
@@ -306,12 +414,25 @@ public class Engine {
         StdDraw.show();
     }
 
+    /**
+     * Scrolls VIEWPORT to keep the avatar on screen and returns what it shows.
+     */
+    private TETile[][] followAvatar(World world, Viewport viewport) {
+        viewport.follow(world.getAvatarPos().X, world.getAvatarPos().Y);
+        return world.getView(viewport);
+    }
+
     public void playWorldWithKeyboard(World world, int speed) {
         this.gameOver = false;
 
         ter.initialize(WIDTH, HEIGHT);
-        ter.renderFrame(world.getWorld());
-        drawUpLeftText(world.getCurrentTile().description());
+        Viewport viewport = new Viewport(WIDTH, HEIGHT, world.getWidth(), world.getHeight());
+        viewport.center(world.getAvatarPos().X, world.getAvatarPos().Y);
+        renderFrameWithText(world.getView(viewport), world.getCurrentTile().description());
+        if (slot == null) {
+            slot = SaveStore.slotFor(world.getSeed());
+        }
+        lastAutosave = System.currentTimeMillis();
 
         String preCh;
         String curCh = "";
@@ -321,16 +442,16 @@ public class Engine {
             while (!StdDraw.hasNextKeyTyped()) {
                 int x = (int) StdDraw.mouseX();
                 int y = (int) StdDraw.mouseY();
-                ter.renderFrame(world.getWorld());
-                drawUpLeftText(world.getWorld()[x][y].description());
-                StdDraw.show();
 
+                /* One frame per tick: the chase path and the text are drawn
+                   together and shown once. */
                 path = world.updateChasePath();
-                ter.renderFrame(world.getWorld());
+                TETile[][] frame = followAvatar(world, viewport);
+                renderFrameWithText(frame, frame[x][y].description());
 
                 StdDraw.pause(speed);
                 world.recoverChasePath(path);
-                if (!world.monsterChase(path)) {
+                if (!world.monsterChase()) {
                     gameOver = true;
 
                     this.drawFrame("Monster chased! You failed!");
@@ -338,37 +459,37 @@ public class Engine {
                     StdDraw.pause(2000);
                     System.exit(0);
                 }
-                ter.renderFrame(world.getWorld());
+                autosaveIfDue(world);
             }
 
             preCh = curCh;
             curCh = Character.toString(StdDraw.nextKeyTyped());
             if (curCh.equals("w") || curCh.equals("W")) {
                 world.moveUp();
-                ter.renderFrame(world.getWorld());
+                ter.renderFrame(followAvatar(world, viewport));
             }
 
             if (curCh.equals("a") || curCh.equals("A")) {
                 world.moveLeft();
-                ter.renderFrame(world.getWorld());
+                ter.renderFrame(followAvatar(world, viewport));
             }
 
             if (curCh.equals("s") || curCh.equals("S")) {
                 world.moveDown();
-                ter.renderFrame(world.getWorld());
+                ter.renderFrame(followAvatar(world, viewport));
             }
 
             if (curCh.equals("d") || curCh.equals("D")) {
                 world.moveRight();
-                ter.renderFrame(world.getWorld());
+                ter.renderFrame(followAvatar(world, viewport));
             }
 
             if (curCh.equals("t") || curCh.equals("T")) {
                 world.turnLight();
-                ter.renderFrame(world.getWorld());
+                ter.renderFrame(followAvatar(world, viewport));
             }
 
-            if (world.getCurrentTile().character() == Tileset.LOCKED_DOOR.character()) {
+            if (world.isAvatarAtDoor()) {
                 gameOver = true;
 
                 this.drawFrame("Well done! You win!");
@@ -378,14 +499,96 @@ public class Engine {
             }
 
             if (preCh.equals(":") && (curCh.equals("q") || curCh.equals("Q"))) {
-                world.saveWorld();
+                autosaver.saveNow(world, slot);
                 System.exit(0);
 
                 return;
             }
+            autosaveIfDue(world);
         }
     }
 
+    /* Starts a background save of WORLD if the last one is AUTOSAVE_MILLIS
+       old. */
+    private void autosaveIfDue(World world) {
+        long now = System.currentTimeMillis();
+        if (now - lastAutosave >= AUTOSAVE_MILLIS) {
+            autosaver.save(world, slot);
+            lastAutosave = now;
+        }
+    }
+
+
+    /**
+     * Explores an endless world generated chunk by chunk from SEED. The avatar
+     * stays in the middle of the screen while the world scrolls past, and only
+     * the chunks around it are kept in memory. WASD moves, Q quits.
+     */
+    public void exploreChunkedWorld(long seed) {
+        ChunkedWorld world = new ChunkedWorld(seed, ChunkedWorld.DEFAULT_MAX_CHUNKS);
+        exploreChunkedWorld(world, world.findSpawn());
+        System.exit(0);
+    }
+
+    /**
+     * Explores the world stored in the world file at PATH, creating it for
+     * SEED if there is no such file. Only the header is read up front; chunks
+     * are paged in from the file as the avatar reaches them, and the chunks
+     * it changed are written back when Q quits.
+     */
+    public void exploreWorldFile(Path path, long seed) throws IOException {
+        try (ChunkFile file = Files.exists(path) ? ChunkFile.open(path)
+                : ChunkFile.create(path, seed, ChunkFile.DEFAULT_CHUNKS,
+                        ChunkFile.DEFAULT_CHUNKS)) {
+            ChunkedWorld world = new ChunkedWorld(file, ChunkedWorld.DEFAULT_MAX_CHUNKS);
+            int[] avatar = file.avatar();
+            if (avatar == null) {
+                avatar = world.findSpawn();
+            }
+            exploreChunkedWorld(world, avatar);
+            file.setAvatar(avatar[0], avatar[1]);
+            world.flush();
+        }
+        System.exit(0);
+    }
+
+    /* Runs the exploring loop on WORLD with the avatar at AVATAR, which is
+       updated as it moves, until Q is typed. The avatar is kept in the tile
+       ids, so a file-backed world saves it along with the chunk it is in. */
+    private void exploreChunkedWorld(ChunkedWorld world, int[] avatar) {
+        TETile[][] frame = new TETile[WIDTH][HEIGHT];
+        world.set(avatar[0], avatar[1], TileGrid.AVATAR);
+
+        ter.initialize(WIDTH, HEIGHT);
+        while (true) {
+            world.view(avatar[0] - WIDTH / 2, avatar[1] - HEIGHT / 2, frame);
+            ter.renderFrame(frame);
+
+            while (!StdDraw.hasNextKeyTyped()) {
+                StdDraw.pause(20);
+            }
+            char ch = Character.toLowerCase(StdDraw.nextKeyTyped());
+            int x = avatar[0];
+            int y = avatar[1];
+            if (ch == 'w') {
+                y += 1;
+            } else if (ch == 's') {
+                y -= 1;
+            } else if (ch == 'a') {
+                x -= 1;
+            } else if (ch == 'd') {
+                x += 1;
+            } else if (ch == 'q') {
+                return;
+            }
+            if (world.isWalkable(x, y)) {
+                world.set(avatar[0], avatar[1], TileGrid.FLOOR);
+                world.set(x, y, TileGrid.AVATAR);
+                avatar[0] = x;
+                avatar[1] = y;
+            }
+        }
+    }
 
     public void playWorldWithInputString(World world, String input) {
         this.gameOver = false;
@@ -419,7 +622,7 @@ public class Engine {
 //                ter.renderFrame(world.getWorld());
             }
 
-            if (world.getCurrentTile().character() == Tileset.LOCKED_DOOR.character()) {
+            if (world.isAvatarAtDoor()) {
                 gameOver = true;
 
 //                this.drawFrame("Well done! You win!");
@@ -243,8 +243,9 @@ public class Graph {
             pq.add(e);
         }
 
-        UnionFind uf = new UnionFind(getAllVertices().size());
-        while (!pq.isEmpty() && mst.size() < getAllVertices().size() - 1) {
+        int vertexCount = neighbors.size();
+        UnionFind uf = new UnionFind(vertexCount);
+        while (!pq.isEmpty() && mst.size() < vertexCount - 1) {
             Edge e = pq.poll();
             int v = e.getSource();
             int w = e.getDest();
@@ -265,6 +266,86 @@ public class Graph {
         return g;
     }
 
+    /* Returns a minimum spanning tree of the complete graph on the points
+       (XS[i], YS[i]), with edges weighted by Manhattan distance, in O(N log N)
+       time. Such a tree only ever joins a point to the nearest other point in
+       one of the eight 45-degree octants around it, so those at most 4N pairs
+       are the only candidates. They are found with one sweep per pair of
+       opposite octants: the points are visited in order of x + y, and the
+       points still lacking a neighbor in the current octant wait in a TreeMap
+       ordered by y. Kruskal's algorithm then runs on the candidates. */
+    public static Graph manhattanMST(int[] xs, int[] ys) {
+        int n = xs.length;
+        int[] x = xs.clone();
+        int[] y = ys.clone();
+        Integer[] order = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = i;
+        }
+
+        int[] from = new int[4 * n];
+        int[] to = new int[4 * n];
+        int[] weight = new int[4 * n];
+        int count = 0;
+        for (int k = 0; k < 4; k++) {
+            Arrays.sort(order, (i, j) -> Integer.compare(x[i] + y[i], x[j] + y[j]));
+            TreeMap<Integer, Integer> sweep = new TreeMap<>();
+            for (int i : order) {
+                Map.Entry<Integer, Integer> e = sweep.ceilingEntry(-y[i]);
+                while (e != null) {
+                    int j = e.getValue();
+                    int dx = x[i] - x[j];
+                    int dy = y[i] - y[j];
+                    if (dy > dx) {
+                        break;
+                    }
+                    from[count] = i;
+                    to[count] = j;
+                    weight[count] = dx + dy;
+                    count += 1;
+                    sweep.remove(e.getKey());
+                    e = sweep.ceilingEntry(-y[i]);
+                }
+                sweep.put(-y[i], i);
+            }
+
+            /* Rotate or reflect the points so that the next sweep covers the
+               next pair of octants. */
+            for (int i = 0; i < n; i++) {
+                if ((k & 1) == 1) {
+                    x[i] = -x[i];
+                } else {
+                    int t = x[i];
+                    x[i] = y[i];
+                    y[i] = t;
+                }
+            }
+        }
+
+        /* Sort candidates by weight, then by the order they were found in. */
+        long[] sorted = new long[count];
+        for (int i = 0; i < count; i++) {
+            sorted[i] = ((long) weight[i] << 32) | i;
+        }
+        Arrays.sort(sorted);
+
+        Graph g = new Graph();
+        for (int i = 0; i < n; i++) {
+            g.addVertex(i);
+        }
+        UnionFind uf = new UnionFind(n);
+        int added = 0;
+        for (int s = 0; s < count && added < n - 1; s++) {
+            int e = (int) sorted[s];
+            if (!uf.connected(from[e], to[e])) {
+                uf.union(from[e], to[e]);
+                g.addEdge(from[e], to[e], weight[e]);
+                added += 1;
+            }
+        }
+        return g;
+    }
+
     /* Returns a randomly generated graph with VERTICES number of vertices and
        EDGES number of edges with max weight WEIGHT. */
     public static Graph randomGraph(int vertices, int edges, int weight) {
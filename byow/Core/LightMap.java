@@ -0,0 +1,155 @@
+package byow.Core;
+
+import byow.TileEngine.TileGrid;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/* The light sources of a world, kept in parallel int arrays, and the light
+   channel of the TileGrid they produce.
+
+   A source has a position, an intensity and the rectangle it lights, usually
+   the interior of its chamber. It adds its intensity minus the Chebyshev
+   distance to every cell of that rectangle, and contributions from all
+   sources that are on add up, saturating at TileGrid.MAX_LIGHT.
+
+   Switching a source on or off only redoes the light inside its own
+   rectangle: the rectangle is cleared, then every source that is on and
+   overlaps it adds its light again, clipped to the rectangle. Both passes
+   run over the grid's primitive light array, so a toggle costs one pass over
+   the cells involved and allocates nothing. */
+public class LightMap {
+    private static final int INITIAL_CAPACITY = 4;
+
+    private int[] lightX;
+    private int[] lightY;
+    private int[] strength;
+    private int[] left;
+    private int[] bottom;
+    private int[] right;
+    private int[] up;
+    private boolean[] on;
+    private int count;
+
+    public LightMap() {
+        lightX = new int[INITIAL_CAPACITY];
+        lightY = new int[INITIAL_CAPACITY];
+        strength = new int[INITIAL_CAPACITY];
+        left = new int[INITIAL_CAPACITY];
+        bottom = new int[INITIAL_CAPACITY];
+        right = new int[INITIAL_CAPACITY];
+        up = new int[INITIAL_CAPACITY];
+        on = new boolean[INITIAL_CAPACITY];
+    }
+
+    /* Returns the number of light sources. */
+    public int size() {
+        return count;
+    }
+
+    /* Adds a source at (X, Y) with intensity STRENGTH that lights L..R x B..U,
+       bounds included. The source starts off. Returns its index. */
+    public int add(int x, int y, int strength, int l, int b, int r, int u) {
+        if (count == lightX.length) {
+            int capacity = count * 2;
+            lightX = Arrays.copyOf(lightX, capacity);
+            lightY = Arrays.copyOf(lightY, capacity);
+            this.strength = Arrays.copyOf(this.strength, capacity);
+            left = Arrays.copyOf(left, capacity);
+            bottom = Arrays.copyOf(bottom, capacity);
+            right = Arrays.copyOf(right, capacity);
+            up = Arrays.copyOf(up, capacity);
+            on = Arrays.copyOf(on, capacity);
+        }
+        lightX[count] = x;
+        lightY[count] = y;
+        this.strength[count] = strength;
+        left[count] = l;
+        bottom[count] = b;
+        right[count] = r;
+        up[count] = u;
+        count += 1;
+        return count - 1;
+    }
+
+    public boolean isOn(int i) {
+        return on[i];
+    }
+
+    /* Switches source I on or off and updates the light of GRID to match. */
+    public void set(TileGrid grid, int i, boolean value) {
+        if (on[i] == value) {
+            return;
+        }
+        on[i] = value;
+        relight(grid, left[i], bottom[i], right[i], up[i]);
+    }
+
+    /* Switches source I to the other state. */
+    public void toggle(TileGrid grid, int i) {
+        set(grid, i, !on[i]);
+    }
+
+    /* Recomputes the whole light channel of GRID from the sources. */
+    public void relightAll(TileGrid grid) {
+        relight(grid, 0, 0, grid.width() - 1, grid.height() - 1);
+    }
+
+    /* Returns the number of bytes write uses. */
+    public int byteSize() {
+        return 4 + count * (7 * 4 + 1);
+    }
+
+    /* Writes every source to BUFFER. */
+    public void write(ByteBuffer buffer) {
+        buffer.putInt(count);
+        for (int i = 0; i < count; i++) {
+            buffer.putInt(lightX[i]).putInt(lightY[i]).putInt(strength[i]);
+            buffer.putInt(left[i]).putInt(bottom[i]).putInt(right[i]).putInt(up[i]);
+            buffer.put((byte) (on[i] ? 1 : 0));
+        }
+    }
+
+    /* Reads sources written by write for a WIDTH x HEIGHT grid. The light
+       channel is not touched; call relightAll once the grid is in place. */
+    public static LightMap read(ByteBuffer buffer, int width, int height) throws IOException {
+        int n = buffer.getInt();
+        if (n < 0 || n > buffer.remaining() / (7 * 4 + 1)) {
+            throw new IOException("Corrupt light table in save file.");
+        }
+        LightMap lights = new LightMap();
+        for (int i = 0; i < n; i++) {
+            int x = buffer.getInt();
+            int y = buffer.getInt();
+            int strength = buffer.getInt();
+            int l = buffer.getInt();
+            int b = buffer.getInt();
+            int r = buffer.getInt();
+            int u = buffer.getInt();
+            if (l < 0 || b < 0 || r >= width || u >= height) {
+                throw new IOException("Light source outside the world in save file.");
+            }
+            lights.add(x, y, strength, l, b, r, u);
+            lights.on[i] = buffer.get() != 0;
+        }
+        return lights;
+    }
+
+    /* Recomputes the light of L..R x B..U from every source that is on. */
+    private void relight(TileGrid grid, int l, int b, int r, int u) {
+        grid.clearLight(l, b, r, u);
+        for (int j = 0; j < count; j++) {
+            if (!on[j]) {
+                continue;
+            }
+            int cl = Math.max(l, left[j]);
+            int cb = Math.max(b, bottom[j]);
+            int cr = Math.min(r, right[j]);
+            int cu = Math.min(u, up[j]);
+            if (cl <= cr && cb <= cu) {
+                grid.addLight(lightX[j], lightY[j], strength[j], cl, cb, cr, cu);
+            }
+        }
+    }
+}
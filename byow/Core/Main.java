@@ -1,18 +1,40 @@
 package byow.Core;
 
+import byow.TileEngine.HeadlessRenderer;
+import byow.TileEngine.TETile;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Paths;
+
 /** This is the main entry point for the program. This class simply parses
  *  the command line inputs, and lets the byow.Core.Engine class take over
  *  in either keyboard or input string mode.
  */
 public class Main {
-    public static void main(String[] args) {
-        if (args.length > 2) {
+    public static void main(String[] args) throws IOException {
+        if (args.length == 3 && args[0].equals("-r")) {
+            /* Render the world without opening a window: -r INPUT FILE.png */
+            Engine engine = new Engine();
+            HeadlessRenderer renderer = new HeadlessRenderer();
+            TETile[][] world = engine.interactWithInputString(args[1]);
+            renderer.initialize(world.length, world[0].length);
+            renderer.renderFrame(world);
+            renderer.writePng(new File(args[2]));
+        } else if (args.length == 3 && args[0].equals("-m")) {
+            /* Explore a world file, created for SEED if missing: -m FILE SEED */
+            Engine engine = new Engine();
+            engine.exploreWorldFile(Paths.get(args[1]), Long.parseLong(args[2]));
+        } else if (args.length > 2) {
             System.out.println("Can only have two arguments - the flag and input string");
             System.exit(0);
         } else if (args.length == 2 && args[0].equals("-s")) {
             Engine engine = new Engine();
             engine.interactWithInputString(args[1]);
             System.out.println(engine.toString());
+        } else if (args.length == 2 && args[0].equals("-x")) {
+            Engine engine = new Engine();
+            engine.exploreChunkedWorld(Long.parseLong(args[1]));
         } else if (args.length == 2 && args[0].equals("-p")) {
             System.out.println("Coming soon.");
         } else {
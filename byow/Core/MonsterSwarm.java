@@ -0,0 +1,145 @@
+package byow.Core;
+
+import java.util.Arrays;
+
+/* Positions of every monster in a world, kept in parallel int arrays, plus an
+   occupancy grid indexed x * height + y so collisions are O(1) to detect.
+
+   tick advances all monsters in one pass over a shared DistanceField. Monsters
+   move in index order: each one takes the best free neighbor that is closer to
+   the avatar, and stays put if every such neighbor is already occupied. Since
+   the order never changes, the same start state always produces the same
+   moves. */
+public class MonsterSwarm {
+    private static final int INITIAL_CAPACITY = 4;
+
+    private final int height;
+
+    private int[] monsterX;
+    private int[] monsterY;
+    /* Positions before the latest tick, so callers can repaint what moved. */
+    private int[] lastX;
+    private int[] lastY;
+    private int count;
+
+    /* Maps a cell to the index of the monster standing on it plus one, or 0. */
+    private final int[] occupant;
+
+    /* Creates an empty swarm for a WIDTH x HEIGHT world. */
+    public MonsterSwarm(int width, int height) {
+        this.height = height;
+        this.monsterX = new int[INITIAL_CAPACITY];
+        this.monsterY = new int[INITIAL_CAPACITY];
+        this.lastX = new int[INITIAL_CAPACITY];
+        this.lastY = new int[INITIAL_CAPACITY];
+        this.occupant = new int[width * height];
+    }
+
+    /* Adds a monster at (X, Y) and returns its index, or -1 if another monster
+       already stands there. */
+    public int add(int x, int y) {
+        int v = x * height + y;
+        if (occupant[v] != 0) {
+            return -1;
+        }
+        if (count == monsterX.length) {
+            int capacity = count * 2;
+            monsterX = Arrays.copyOf(monsterX, capacity);
+            monsterY = Arrays.copyOf(monsterY, capacity);
+            lastX = Arrays.copyOf(lastX, capacity);
+            lastY = Arrays.copyOf(lastY, capacity);
+        }
+        monsterX[count] = x;
+        monsterY[count] = y;
+        lastX[count] = x;
+        lastY[count] = y;
+        count += 1;
+        occupant[v] = count;
+        return count - 1;
+    }
+
+    /* Returns true if a monster stands on (X, Y). */
+    public boolean isOccupied(int x, int y) {
+        return occupant[x * height + y] != 0;
+    }
+
+    /* Returns the number of monsters. */
+    public int size() {
+        return count;
+    }
+
+    public int x(int i) {
+        return monsterX[i];
+    }
+
+    public int y(int i) {
+        return monsterY[i];
+    }
+
+    public int lastX(int i) {
+        return lastX[i];
+    }
+
+    public int lastY(int i) {
+        return lastY[i];
+    }
+
+    /* Returns true if monster I changed cells during the latest tick. */
+    public boolean moved(int i) {
+        return monsterX[i] != lastX[i] || monsterY[i] != lastY[i];
+    }
+
+    /* Moves every monster one step down FIELD. Returns true if some monster
+       was already standing on the field's root when the tick began. */
+    public boolean tick(DistanceField field) {
+        boolean caught = false;
+        for (int i = 0; i < count; i++) {
+            int x = monsterX[i];
+            int y = monsterY[i];
+            lastX[i] = x;
+            lastY[i] = y;
+
+            int d = field.distance(x, y);
+            if (d == 0) {
+                caught = true;
+                continue;
+            }
+
+            int next = field.nextStep(x, y);
+            if (next == -1) {
+                continue;
+            }
+            if (occupant[next] != 0) {
+                next = freeStep(field, x, y, d - 1);
+                if (next == -1) {
+                    continue;
+                }
+            }
+
+            occupant[x * height + y] = 0;
+            occupant[next] = i + 1;
+            monsterX[i] = next / height;
+            monsterY[i] = next % height;
+        }
+        return caught;
+    }
+
+    /* Returns an unoccupied neighbor of (X, Y) at distance D in FIELD, or -1. */
+    private int freeStep(DistanceField field, int x, int y, int d) {
+        int v = x * height + y;
+        if (x > 0 && occupant[v - height] == 0 && field.distance(x - 1, y) == d) {
+            return v - height;
+        }
+        if (v + height < occupant.length && occupant[v + height] == 0
+                && field.distance(x + 1, y) == d) {
+            return v + height;
+        }
+        if (y > 0 && occupant[v - 1] == 0 && field.distance(x, y - 1) == d) {
+            return v - 1;
+        }
+        if (y + 1 < height && occupant[v + 1] == 0 && field.distance(x, y + 1) == d) {
+            return v + 1;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,234 @@
+package byow.Core;
+
+import byow.TileEngine.TileGrid;
+
+import java.util.Arrays;
+
+/* A grid-indexed A* search over a TileGrid world. Cells are numbered
+   x * height + y, and every piece of search state lives in int arrays that
+   are allocated once and reused, so a query does not allocate. Walls are
+   impassable and every other tile costs 1 to enter. The Manhattan distance
+   to the target is a consistent heuristic on a 4-connected grid, so the
+   first time the target is popped its distance is optimal. */
+public class PathFinder {
+
+    private final int width;
+    private final int height;
+
+    /* Best known distance from the source and the cell it was reached from.
+       Only meaningful for cells whose seen stamp equals the current stamp. */
+    private final int[] distTo;
+    private final int[] edgeTo;
+
+    /* Search generation that last touched / settled each cell. Bumping the
+       stamp invalidates all of the arrays above in O(1). */
+    private final int[] seen;
+    private final int[] closed;
+    private int stamp;
+
+    /* Binary min-heap of cells ordered by distTo + heuristic. heapIndex maps
+       a cell to its slot so keys can be decreased in place. */
+    private final int[] heap;
+    private final int[] heapKey;
+    private final int[] heapIndex;
+    private int heapSize;
+
+    /* Cells of the last path found, from source to target. */
+    private final int[] path;
+    private int pathLength;
+
+    /* Creates a PathFinder for worlds of WIDTH x HEIGHT tiles. */
+    public PathFinder(int width, int height) {
+        this.width = width;
+        this.height = height;
+        int n = width * height;
+        this.distTo = new int[n];
+        this.edgeTo = new int[n];
+        this.seen = new int[n];
+        this.closed = new int[n];
+        this.heap = new int[n];
+        this.heapKey = new int[n];
+        this.heapIndex = new int[n];
+        this.path = new int[n];
+    }
+
+    /* Returns the index of cell (X, Y). */
+    public int cell(int x, int y) {
+        return x * height + y;
+    }
+
+    /* Returns the x coordinate of the Ith cell on the last path. */
+    public int pathX(int i) {
+        return path[i] / height;
+    }
+
+    /* Returns the y coordinate of the Ith cell on the last path. */
+    public int pathY(int i) {
+        return path[i] % height;
+    }
+
+    /* Returns the number of cells on the last path. */
+    public int pathLength() {
+        return pathLength;
+    }
+
+    /* Finds a shortest path in WORLD from (SX, SY) to (TX, TY) and returns its
+       length in cells, both endpoints included. Returns 0 if the target cannot
+       be reached. The cells can be read back with pathX and pathY. */
+    public int search(TileGrid world, int sx, int sy, int tx, int ty) {
+        nextStamp();
+        heapSize = 0;
+        pathLength = 0;
+
+        int source = cell(sx, sy);
+        int target = cell(tx, ty);
+        seen[source] = stamp;
+        distTo[source] = 0;
+        edgeTo[source] = source;
+        push(source, manhattan(sx, sy, tx, ty));
+
+        while (heapSize > 0) {
+            int curr = pop();
+            if (curr == target) {
+                return tracePath(source, target);
+            }
+            closed[curr] = stamp;
+
+            int x = curr / height;
+            int y = curr % height;
+            int nextDist = distTo[curr] + 1;
+            if (x > 0) {
+                relax(world, curr, x - 1, y, nextDist, tx, ty);
+            }
+            if (x + 1 < width) {
+                relax(world, curr, x + 1, y, nextDist, tx, ty);
+            }
+            if (y > 0) {
+                relax(world, curr, x, y - 1, nextDist, tx, ty);
+            }
+            if (y + 1 < height) {
+                relax(world, curr, x, y + 1, nextDist, tx, ty);
+            }
+        }
+        return 0;
+    }
+
+    private void relax(TileGrid world, int from, int x, int y, int dist, int tx, int ty) {
+        if (!world.isWalkable(x, y)) {
+            return;
+        }
+        int next = cell(x, y);
+        if (closed[next] == stamp) {
+            return;
+        }
+        if (seen[next] != stamp) {
+            seen[next] = stamp;
+            distTo[next] = dist;
+            edgeTo[next] = from;
+            push(next, dist + manhattan(x, y, tx, ty));
+        } else if (dist < distTo[next]) {
+            distTo[next] = dist;
+            edgeTo[next] = from;
+            decreaseKey(next, dist + manhattan(x, y, tx, ty));
+        }
+    }
+
+    private int tracePath(int source, int target) {
+        pathLength = distTo[target] + 1;
+        int v = target;
+        for (int i = pathLength - 1; i > 0; i--) {
+            path[i] = v;
+            v = edgeTo[v];
+        }
+        path[0] = source;
+        return pathLength;
+    }
+
+    private void nextStamp() {
+        stamp += 1;
+        if (stamp == Integer.MAX_VALUE) {
+            Arrays.fill(seen, 0);
+            Arrays.fill(closed, 0);
+            stamp = 1;
+        }
+    }
+
+    private static int manhattan(int x1, int y1, int x2, int y2) {
+        return Math.abs(x1 - x2) + Math.abs(y1 - y2);
+    }
+
+    /* Heap slot I orders before slot J: lower key first, and among equal
+       keys the deeper cell first, which keeps A* from widening on ties. */
+    private boolean less(int i, int j) {
+        if (heapKey[i] != heapKey[j]) {
+            return heapKey[i] < heapKey[j];
+        }
+        return distTo[heap[i]] > distTo[heap[j]];
+    }
+
+    private void push(int v, int key) {
+        heap[heapSize] = v;
+        heapKey[heapSize] = key;
+        heapIndex[v] = heapSize;
+        heapSize += 1;
+        swim(heapSize - 1);
+    }
+
+    private int pop() {
+        int top = heap[0];
+        heapSize -= 1;
+        if (heapSize > 0) {
+            move(heapSize, 0);
+            sink(0);
+        }
+        return top;
+    }
+
+    private void decreaseKey(int v, int key) {
+        int i = heapIndex[v];
+        heapKey[i] = key;
+        swim(i);
+    }
+
+    private void swim(int i) {
+        while (i > 0) {
+            int parent = (i - 1) / 2;
+            if (!less(i, parent)) {
+                return;
+            }
+            swap(i, parent);
+            i = parent;
+        }
+    }
+
+    private void sink(int i) {
+        while (2 * i + 1 < heapSize) {
+            int child = 2 * i + 1;
+            if (child + 1 < heapSize && less(child + 1, child)) {
+                child += 1;
+            }
+            if (!less(child, i)) {
+                return;
+            }
+            swap(i, child);
+            i = child;
+        }
+    }
+
+    private void move(int from, int to) {
+        heap[to] = heap[from];
+        heapKey[to] = heapKey[from];
+        heapIndex[heap[to]] = to;
+    }
+
+    private void swap(int i, int j) {
+        int v = heap[i];
+        int key = heapKey[i];
+        heap[i] = heap[j];
+        heapKey[i] = heapKey[j];
+        heap[j] = v;
+        heapKey[j] = key;
+        heapIndex[heap[i]] = i;
+        heapIndex[heap[j]] = j;
+    }
+}
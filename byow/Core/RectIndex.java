@@ -0,0 +1,117 @@
+package byow.Core;
+
+import java.util.Arrays;
+
+/* A uniform-grid spatial index of axis-aligned rectangles on a WIDTH x HEIGHT
+   board. The board is cut into 8 x 8 buckets, and each rectangle is
+   listed in every bucket it covers, so an overlap query only looks at the
+   rectangles stored in the few buckets around the query instead of all of
+   them.
+
+   Rectangles are given by inclusive cell bounds. Two rectangles "touch" when
+   they overlap or are separated by fewer than one empty cell, which is the
+   rule World uses to keep chambers apart. */
+public class RectIndex {
+    private static final int BUCKET_SHIFT = 3;
+
+    private final int bucketsX;
+    private final int bucketsY;
+    private final int[][] buckets;
+    private final int[] bucketSize;
+
+    private int[] left;
+    private int[] bottom;
+    private int[] right;
+    private int[] up;
+    private int count;
+
+    /* Query stamp each rectangle was last tested in, so a rectangle listed in
+       several buckets is only tested once per query. */
+    private int[] seen;
+    private int stamp;
+
+    /* Creates an empty index for a WIDTH x HEIGHT board. */
+    public RectIndex(int width, int height) {
+        this.bucketsX = (Math.max(width, 1) + (1 << BUCKET_SHIFT) - 1) >> BUCKET_SHIFT;
+        this.bucketsY = (Math.max(height, 1) + (1 << BUCKET_SHIFT) - 1) >> BUCKET_SHIFT;
+        this.buckets = new int[bucketsX * bucketsY][];
+        this.bucketSize = new int[bucketsX * bucketsY];
+        this.left = new int[16];
+        this.bottom = new int[16];
+        this.right = new int[16];
+        this.up = new int[16];
+        this.seen = new int[16];
+    }
+
+    /* Returns the number of rectangles in the index. */
+    public int size() {
+        return count;
+    }
+
+    /* Adds the rectangle L..R x B..U. */
+    public void add(int l, int b, int r, int u) {
+        if (count == left.length) {
+            int capacity = count * 2;
+            left = Arrays.copyOf(left, capacity);
+            bottom = Arrays.copyOf(bottom, capacity);
+            right = Arrays.copyOf(right, capacity);
+            up = Arrays.copyOf(up, capacity);
+            seen = Arrays.copyOf(seen, capacity);
+        }
+        int id = count;
+        left[id] = l;
+        bottom[id] = b;
+        right[id] = r;
+        up[id] = u;
+        count += 1;
+
+        for (int bx = bucketX(l); bx <= bucketX(r); bx++) {
+            for (int by = bucketY(b); by <= bucketY(u); by++) {
+                int k = bx * bucketsY + by;
+                int[] bucket = buckets[k];
+                if (bucket == null) {
+                    bucket = new int[4];
+                    buckets[k] = bucket;
+                } else if (bucketSize[k] == bucket.length) {
+                    bucket = Arrays.copyOf(bucket, bucket.length * 2);
+                    buckets[k] = bucket;
+                }
+                bucket[bucketSize[k]] = id;
+                bucketSize[k] += 1;
+            }
+        }
+    }
+
+    /* Returns true if some rectangle in the index touches L..R x B..U, i.e.
+       overlaps it or lies directly next to it. */
+    public boolean touches(int l, int b, int r, int u) {
+        stamp += 1;
+        /* Anything within one cell of the query has a cell in the grown box. */
+        for (int bx = bucketX(l - 1); bx <= bucketX(r + 1); bx++) {
+            for (int by = bucketY(b - 1); by <= bucketY(u + 1); by++) {
+                int k = bx * bucketsY + by;
+                int[] bucket = buckets[k];
+                for (int i = 0; i < bucketSize[k]; i++) {
+                    int id = bucket[i];
+                    if (seen[id] == stamp) {
+                        continue;
+                    }
+                    seen[id] = stamp;
+                    if (l - 1 <= right[id] && left[id] - 1 <= r
+                            && b - 1 <= up[id] && bottom[id] - 1 <= u) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    private int bucketX(int x) {
+        return Math.max(0, Math.min(bucketsX - 1, x >> BUCKET_SHIFT));
+    }
+
+    private int bucketY(int y) {
+        return Math.max(0, Math.min(bucketsY - 1, y >> BUCKET_SHIFT));
+    }
+}
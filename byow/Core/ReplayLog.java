@@ -0,0 +1,249 @@
+package byow.Core;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/* The gameplay actions applied to a World since it was generated, or since
+   its latest checkpoint. A world is fully determined by its seed, its size
+   and these actions, so it can be saved as just those and rebuilt by
+   generating it again, or loading the checkpoint, and replaying them.
+
+   Actions are kept in one growable int array: a code, followed by the
+   action's arguments for the few codes that take any. The monster tick the
+   game runs while waiting for keys, showing the chase path, hiding it and
+   moving the monsters, is folded into a single TICK as it is appended.
+
+   On disk, runs of the same argument-free code become (code, count) pairs,
+   so long walks in one direction and idle stretches of ticks take a couple
+   of bytes each. See write.
+
+   A snapshot shares the action array with the log it was taken from, so it
+   costs the same however long the log is. The log is only ever appended to,
+   which leaves the snapshot's part alone; the one in-place rewrite, folding a
+   tick that straddles the snapshot, copies the array first. */
+public class ReplayLog {
+    public static final byte UP = 0;
+    public static final byte DOWN = 1;
+    public static final byte LEFT = 2;
+    public static final byte RIGHT = 3;
+    public static final byte TURN_LIGHT = 4;
+    public static final byte LIGHT_ON = 5;
+    public static final byte LIGHT_OFF = 6;
+    public static final byte SHOW_PATH = 7;
+    public static final byte HIDE_PATH = 8;
+    public static final byte CHASE = 9;
+    /* SHOW_PATH, HIDE_PATH and CHASE in a row. */
+    public static final byte TICK = 10;
+    /* Followed by the source index. */
+    public static final byte TOGGLE_LIGHT = 11;
+    /* Followed by chamber, x, y and strength. */
+    public static final byte ADD_LIGHT = 12;
+    /* Followed by the number of monsters asked for. */
+    public static final byte ADD_MONSTERS = 13;
+
+    private static final int[] ARG_COUNT = {0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 1, 4, 1};
+
+    /* The longest action array read accepts. A run takes a few bytes on disk
+       whatever its length, so without a cap a corrupt file could ask for any
+       amount of memory. A log holds the actions since the latest checkpoint,
+       normally fewer than a few hundred. */
+    private static final int MAX_LENGTH = 1 << 24;
+
+    private int[] data = new int[64];
+    private int length;
+    private int actions;
+    private int moves;
+    /* Positions below this may be read by a snapshot and are copied before
+       they are written. */
+    private int shared;
+
+    /* The codes of the last two actions appended, or -1. */
+    private int last = -1;
+    private int beforeLast = -1;
+
+    /* Returns a log holding the actions so far, which later appends to this
+       log leave unchanged. The snapshot may be read from another thread while
+       this log is appended to, but must not be appended to itself. */
+    public ReplayLog snapshot() {
+        ReplayLog copy = new ReplayLog();
+        copy.data = data;
+        copy.length = length;
+        copy.actions = actions;
+        copy.moves = moves;
+        copy.shared = data.length;
+        shared = length;
+        return copy;
+    }
+
+    /* Returns the number of arguments that follow CODE. */
+    public static int argCount(int code) {
+        return ARG_COUNT[code];
+    }
+
+    /* Returns the number of actions. */
+    public int actions() {
+        return actions;
+    }
+
+    /* Returns the number of UP, DOWN, LEFT and RIGHT actions. */
+    public int moves() {
+        return moves;
+    }
+
+    /* Returns the number of ints in the action array. */
+    public int length() {
+        return length;
+    }
+
+    /* Returns the int at position I of the action array. */
+    public int get(int i) {
+        return data[i];
+    }
+
+    public void add(byte code) {
+        if (code == CHASE && last == HIDE_PATH && beforeLast == SHOW_PATH) {
+            length -= 2;
+            actions -= 2;
+            code = TICK;
+            last = -1;
+        }
+        ensureCapacity(1);
+        data[length++] = code;
+        appended(code);
+    }
+
+    public void add(byte code, int arg) {
+        ensureCapacity(2);
+        data[length++] = code;
+        data[length++] = arg;
+        appended(code);
+    }
+
+    public void add(byte code, int a, int b, int c, int d) {
+        ensureCapacity(5);
+        data[length++] = code;
+        data[length++] = a;
+        data[length++] = b;
+        data[length++] = c;
+        data[length++] = d;
+        appended(code);
+    }
+
+    private void appended(byte code) {
+        actions += 1;
+        if (code <= RIGHT) {
+            moves += 1;
+        }
+        beforeLast = last;
+        last = code;
+    }
+
+    private void ensureCapacity(int extra) {
+        if (length + extra > data.length || length < shared) {
+            data = Arrays.copyOf(data, Math.max(data.length * 2, length + extra));
+            shared = 0;
+        }
+    }
+
+    /* Returns the number of bytes write uses. */
+    public int byteSize() {
+        int entries = 0;
+        int size = 0;
+        for (int i = 0; i < length; ) {
+            int code = data[i];
+            int n = ARG_COUNT[code];
+            entries += 1;
+            size += 1;
+            if (n == 0) {
+                int end = runEnd(i);
+                size += SaveFile.varIntSize(end - i);
+                i = end;
+            } else {
+                for (int k = 1; k <= n; k++) {
+                    size += SaveFile.varIntSize(data[i + k]);
+                }
+                i += 1 + n;
+            }
+        }
+        return SaveFile.varIntSize(entries) + size;
+    }
+
+    /* Writes the number of entries, then each entry: a code and either the
+       length of its run, for codes without arguments, or its arguments. */
+    public void write(ByteBuffer buffer) {
+        int entries = 0;
+        for (int i = 0; i < length; ) {
+            int n = ARG_COUNT[data[i]];
+            i = n == 0 ? runEnd(i) : i + 1 + n;
+            entries += 1;
+        }
+        SaveFile.putVarInt(buffer, entries);
+        for (int i = 0; i < length; ) {
+            int code = data[i];
+            int n = ARG_COUNT[code];
+            buffer.put((byte) code);
+            if (n == 0) {
+                int end = runEnd(i);
+                SaveFile.putVarInt(buffer, end - i);
+                i = end;
+            } else {
+                for (int k = 1; k <= n; k++) {
+                    SaveFile.putVarInt(buffer, data[i + k]);
+                }
+                i += 1 + n;
+            }
+        }
+    }
+
+    /* Reads a log written by write. */
+    public static ReplayLog read(ByteBuffer buffer) throws IOException {
+        ReplayLog log = new ReplayLog();
+        int entries = SaveFile.getVarInt(buffer);
+        if (entries < 0 || entries > buffer.remaining()) {
+            throw new IOException("Corrupt action log in save file.");
+        }
+        for (int e = 0; e < entries; e++) {
+            int code = buffer.get();
+            if (code < 0 || code >= ARG_COUNT.length) {
+                throw new IOException("Unknown action " + code + " in save file.");
+            }
+            int n = ARG_COUNT[code];
+            if (n == 0) {
+                int run = SaveFile.getVarInt(buffer);
+                if (run <= 0 || run > MAX_LENGTH - log.length) {
+                    throw new IOException("Corrupt action log in save file.");
+                }
+                log.ensureCapacity(run);
+                Arrays.fill(log.data, log.length, log.length + run, code);
+                log.length += run;
+                log.actions += run;
+                if (code <= RIGHT) {
+                    log.moves += run;
+                }
+            } else {
+                if (1 + n > MAX_LENGTH - log.length) {
+                    throw new IOException("Corrupt action log in save file.");
+                }
+                log.ensureCapacity(1 + n);
+                log.data[log.length++] = code;
+                for (int k = 0; k < n; k++) {
+                    log.data[log.length++] = SaveFile.getVarInt(buffer);
+                }
+                log.actions += 1;
+            }
+        }
+        return log;
+    }
+
+    /* Returns the end of the run of argument-free codes equal to the one at
+       I. */
+    private int runEnd(int i) {
+        int code = data[i];
+        int end = i + 1;
+        while (end < length && data[end] == code) {
+            end += 1;
+        }
+        return end;
+    }
+}
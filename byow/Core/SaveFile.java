@@ -0,0 +1,175 @@
+package byow.Core;
+
+import byow.TileEngine.TileGrid;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.util.concurrent.ThreadLocalRandom;
+
+/* Low-level pieces of the binary save format: whole-file reads and writes
+   through a FileChannel, variable-length ints, and the run-length encoding of
+   a TileGrid's tile ids.
+
+   A file is read with one sequential read into a direct buffer sized to the
+   file, and written from a direct buffer the caller sized exactly, so
+   neither side copies through intermediate streams. writeAtomically goes
+   through a temporary file next to the target that is forced to the disk and
+   then renamed over it, so the target always holds a whole save. The
+   temporary file is created with the same default permissions as any other
+   new file, and takes over the target's permissions if the target exists.
+
+   Variable-length ints use seven bits per byte, low bits first, with the top
+   bit set on every byte but the last. Tile ids are stored column by column
+   in flat index order as (id, run length) pairs, the length a variable-length
+   int. Lighting is not stored; it is recomputed from the light sources. */
+public class SaveFile {
+    private SaveFile() {
+    }
+
+    /* Returns the contents of PATH in a direct buffer ready for reading. */
+    public static ByteBuffer read(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Save file is too large: " + path);
+            }
+            ByteBuffer buffer = ByteBuffer.allocateDirect((int) size);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer) < 0) {
+                    throw new EOFException("Save file ended early: " + path);
+                }
+            }
+            buffer.flip();
+            return buffer;
+        }
+    }
+
+    /* Writes the remaining bytes of BUFFER to PATH, replacing its contents. */
+    public static void write(Path path, ByteBuffer buffer) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+    }
+
+    /* Writes the remaining bytes of BUFFER to PATH so that PATH holds either
+       its old contents or all of the new ones, even if the program dies
+       halfway. */
+    public static void writeAtomically(Path path, ByteBuffer buffer) throws IOException {
+        Path temp = path.resolveSibling(path.getFileName() + "."
+                + Long.toUnsignedString(ThreadLocalRandom.current().nextLong()) + ".tmp");
+        try {
+            /* Not Files.createTempFile, which makes the file readable by its
+               owner only. */
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE,
+                    StandardOpenOption.CREATE_NEW)) {
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                channel.force(true);
+            }
+            if (Files.exists(path) && Files.getFileStore(temp)
+                    .supportsFileAttributeView(PosixFileAttributeView.class)) {
+                Files.setPosixFilePermissions(temp, Files.getPosixFilePermissions(path));
+            }
+            try {
+                Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE,
+                        StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException excp) {
+                Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /* Returns the number of bytes putVarInt uses for V. */
+    public static int varIntSize(int v) {
+        int n = 1;
+        while ((v & ~0x7F) != 0) {
+            v >>>= 7;
+            n += 1;
+        }
+        return n;
+    }
+
+    public static void putVarInt(ByteBuffer buffer, int v) {
+        while ((v & ~0x7F) != 0) {
+            buffer.put((byte) ((v & 0x7F) | 0x80));
+            v >>>= 7;
+        }
+        buffer.put((byte) v);
+    }
+
+    public static int getVarInt(ByteBuffer buffer) throws IOException {
+        int v = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            byte b = buffer.get();
+            v |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return v;
+            }
+        }
+        throw new IOException("Malformed variable-length int in save file.");
+    }
+
+    /* Returns the number of bytes putRuns uses for GRID. */
+    public static int runsSize(TileGrid grid) {
+        int cells = grid.width() * grid.height();
+        int size = 0;
+        int v = 0;
+        while (v < cells) {
+            int end = runEnd(grid, v, cells);
+            size += 1 + varIntSize(end - v);
+            v = end;
+        }
+        return size;
+    }
+
+    /* Writes the tile ids of GRID as runs. */
+    public static void putRuns(ByteBuffer buffer, TileGrid grid) {
+        int cells = grid.width() * grid.height();
+        int v = 0;
+        while (v < cells) {
+            int end = runEnd(grid, v, cells);
+            buffer.put(grid.get(v));
+            putVarInt(buffer, end - v);
+            v = end;
+        }
+    }
+
+    /* Reads runs written by putRuns into GRID, which must have the size the
+       runs were written from. */
+    public static void getRuns(ByteBuffer buffer, TileGrid grid) throws IOException {
+        int cells = grid.width() * grid.height();
+        int v = 0;
+        while (v < cells) {
+            byte id = buffer.get();
+            int length = getVarInt(buffer);
+            if (length <= 0 || length > cells - v || id < 0 || id > TileGrid.SAND) {
+                throw new IOException("Corrupt tile data in save file.");
+            }
+            grid.setRun(v, v + length, id);
+            v += length;
+        }
+    }
+
+    private static int runEnd(TileGrid grid, int from, int cells) {
+        byte id = grid.get(from);
+        int end = from + 1;
+        while (end < cells && grid.get(end) == id) {
+            end += 1;
+        }
+        return end;
+    }
+}
@@ -0,0 +1,271 @@
+package byow.Core;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+
+/* Named save slots in one directory. Each slot is a save file SLOT.sav as
+   written by World.saveSnapshot, and the index file next to them holds one
+   small entry per slot: seed, size, move count, time of the save and a hash
+   of the tiles. Listing the saves only reads the index, however many there
+   are; a world is only decoded once its slot is picked.
+
+   A store can also keep the latest save, whichever slot it went to, in one
+   more file outside the slots, normally World.savePath, which the input
+   string "l" loads. It is listed as the slot LATEST, described by decoding
+   it, since saveWorld writes it too without going through the index.
+
+   The index starts with magic and version, then the number of entries as a
+   variable-length int, then the entries: the slot name as a variable-length
+   byte count and UTF-8 bytes, seed, width, height, moves, time in
+   milliseconds and tile hash. Slot files and the index are both written
+   atomically, slot first, so an entry never points at a half-written save.
+   If the index is missing or unreadable it is rebuilt by decoding every slot
+   once. */
+public class SaveStore {
+    public static final int INDEX_MAGIC = 0x42594F49;
+    public static final short INDEX_VERSION = 1;
+    /* The slot name of the latest save; never a valid name for a slot. */
+    public static final String LATEST = ":latest";
+
+    private static final String INDEX_FILE = "index.bin";
+    private static final String SLOT_SUFFIX = ".sav";
+    private static final Pattern SLOT_NAME = Pattern.compile("[A-Za-z0-9_-]{1,64}");
+
+    /* What the index knows about one slot. */
+    public static class Entry {
+        public final String slot;
+        public final long seed;
+        public final int width;
+        public final int height;
+        /* -1 if the world no longer knew; see World.getMoveCount. */
+        public final int moves;
+        public final long timestamp;
+        public final long thumbnailHash;
+
+        public Entry(String slot, long seed, int width, int height, int moves,
+                     long timestamp, long thumbnailHash) {
+            this.slot = slot;
+            this.seed = seed;
+            this.width = width;
+            this.height = height;
+            this.moves = moves;
+            this.timestamp = timestamp;
+            this.thumbnailHash = thumbnailHash;
+        }
+    }
+
+    private final Path dir;
+    private final Path latest;
+
+    /* Creates a store for the slots in DIR, which is created on first save. */
+    public SaveStore(Path dir) {
+        this(dir, null);
+    }
+
+    /* Creates a store for the slots in DIR that also copies every save to
+       LATEST. */
+    public SaveStore(Path dir, Path latest) {
+        this.dir = dir;
+        this.latest = latest;
+    }
+
+    /* Returns the directory saves go to when nothing else is asked for. */
+    public static Path defaultDir() {
+        return Paths.get(System.getProperty("user.dir"), "saves");
+    }
+
+    /* Returns a fresh slot name for a new game on SEED. */
+    public static String slotFor(long seed) {
+        return "seed" + seed + "-" + System.currentTimeMillis();
+    }
+
+    /* Returns the index entry for saving WORLD to SLOT now. */
+    public static Entry describe(String slot, World world) {
+        checkSlot(slot);
+        return new Entry(slot, world.getSeed(), world.getWidth(), world.getHeight(),
+                world.getMoveCount(), System.currentTimeMillis(), world.contentHash());
+    }
+
+    /* Returns the entries of every slot, and of the latest save if there is
+       one, newest first. */
+    public synchronized List<Entry> list() {
+        List<Entry> entries = new ArrayList<>(readIndex().values());
+        Entry last = describeLatest();
+        if (last != null) {
+            entries.add(last);
+        }
+        entries.sort(Comparator.comparingLong((Entry e) -> e.timestamp).reversed());
+        return entries;
+    }
+
+    /* Writes the save from SAVE to the slot of ENTRY and to the latest save,
+       and records ENTRY in the index. */
+    public synchronized void write(Entry entry, Supplier<ByteBuffer> save) throws IOException {
+        Files.createDirectories(dir);
+        ByteBuffer buffer = save.get();
+        SaveFile.writeAtomically(slotPath(entry.slot), buffer.duplicate());
+        if (latest != null) {
+            SaveFile.writeAtomically(latest, buffer);
+        }
+        Map<String, Entry> index = readIndex();
+        index.put(entry.slot, entry);
+        writeIndex(index);
+    }
+
+    /* Saves WORLD to SLOT. */
+    public void save(String slot, World world) throws IOException {
+        write(describe(slot, world), world.saveSnapshot());
+    }
+
+    /* Returns the world saved in SLOT, or null if it cannot be read. */
+    public World load(String slot) {
+        if (slot.equals(LATEST) && latest != null) {
+            return World.readWorld(latest);
+        }
+        checkSlot(slot);
+        return World.readWorld(slotPath(slot));
+    }
+
+    /* Returns the entry of the latest save, or null if there is none. */
+    private Entry describeLatest() {
+        if (latest == null || !Files.isRegularFile(latest)) {
+            return null;
+        }
+        World world = World.readWorld(latest);
+        if (world == null) {
+            return null;
+        }
+        try {
+            return new Entry(LATEST, world.getSeed(), world.getWidth(), world.getHeight(),
+                    world.getMoveCount(), Files.getLastModifiedTime(latest).toMillis(),
+                    world.contentHash());
+        } catch (IOException excp) {
+            System.out.println(excp.getMessage());
+            return null;
+        }
+    }
+
+    private Path slotPath(String slot) {
+        return dir.resolve(slot + SLOT_SUFFIX);
+    }
+
+    private static void checkSlot(String slot) {
+        if (!SLOT_NAME.matcher(slot).matches()) {
+            throw new IllegalArgumentException("Bad save slot name " + slot + ".");
+        }
+    }
+
+    private Map<String, Entry> readIndex() {
+        try {
+            return decodeIndex(SaveFile.read(dir.resolve(INDEX_FILE)));
+        } catch (NoSuchFileException excp) {
+            return rebuildIndex();
+        } catch (IOException | RuntimeException excp) {
+            System.out.println(excp.getMessage());
+            return rebuildIndex();
+        }
+    }
+
+    /* Returns entries for every slot file, decoding each world. Only used
+       when the index is lost, so the cost is paid once. */
+    private Map<String, Entry> rebuildIndex() {
+        Map<String, Entry> index = new LinkedHashMap<>();
+        if (!Files.isDirectory(dir)) {
+            return index;
+        }
+        try (DirectoryStream<Path> slots = Files.newDirectoryStream(dir, "*" + SLOT_SUFFIX)) {
+            for (Path path : slots) {
+                String name = path.getFileName().toString();
+                String slot = name.substring(0, name.length() - SLOT_SUFFIX.length());
+                World world = SLOT_NAME.matcher(slot).matches() ? World.readWorld(path) : null;
+                if (world == null) {
+                    continue;
+                }
+                index.put(slot, new Entry(slot, world.getSeed(), world.getWidth(),
+                        world.getHeight(), world.getMoveCount(),
+                        Files.getLastModifiedTime(path).toMillis(), world.contentHash()));
+            }
+            writeIndex(index);
+        } catch (IOException excp) {
+            System.out.println(excp.getMessage());
+        }
+        return index;
+    }
+
+    private void writeIndex(Map<String, Entry> index) throws IOException {
+        List<byte[]> names = new ArrayList<>(index.size());
+        int size = 4 + 2 + SaveFile.varIntSize(index.size());
+        for (Entry e : index.values()) {
+            byte[] name = e.slot.getBytes(StandardCharsets.UTF_8);
+            names.add(name);
+            size += SaveFile.varIntSize(name.length) + name.length + 8
+                    + SaveFile.varIntSize(e.width) + SaveFile.varIntSize(e.height)
+                    + SaveFile.varIntSize(e.moves + 1) + 8 + 8;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocateDirect(size);
+        buffer.putInt(INDEX_MAGIC).putShort(INDEX_VERSION);
+        SaveFile.putVarInt(buffer, index.size());
+        int i = 0;
+        for (Entry e : index.values()) {
+            byte[] name = names.get(i++);
+            SaveFile.putVarInt(buffer, name.length);
+            buffer.put(name);
+            buffer.putLong(e.seed);
+            SaveFile.putVarInt(buffer, e.width);
+            SaveFile.putVarInt(buffer, e.height);
+            SaveFile.putVarInt(buffer, e.moves + 1);
+            buffer.putLong(e.timestamp).putLong(e.thumbnailHash);
+        }
+        buffer.flip();
+        SaveFile.writeAtomically(dir.resolve(INDEX_FILE), buffer);
+    }
+
+    private static Map<String, Entry> decodeIndex(ByteBuffer buffer) throws IOException {
+        if (buffer.remaining() < 6 || buffer.getInt() != INDEX_MAGIC) {
+            throw new IOException("Not a save index.");
+        }
+        short version = buffer.getShort();
+        if (version != INDEX_VERSION) {
+            throw new IOException("Unsupported save index version " + version + ".");
+        }
+        int count = SaveFile.getVarInt(buffer);
+        if (count < 0) {
+            throw new IOException("Corrupt save index.");
+        }
+        Map<String, Entry> index = new LinkedHashMap<>();
+        for (int i = 0; i < count; i++) {
+            int length = SaveFile.getVarInt(buffer);
+            if (length <= 0 || length > buffer.remaining()) {
+                throw new IOException("Corrupt save index.");
+            }
+            byte[] name = new byte[length];
+            buffer.get(name);
+            String slot = new String(name, StandardCharsets.UTF_8);
+            if (!SLOT_NAME.matcher(slot).matches()) {
+                throw new IOException("Corrupt save index.");
+            }
+            long seed = buffer.getLong();
+            int width = SaveFile.getVarInt(buffer);
+            int height = SaveFile.getVarInt(buffer);
+            int moves = SaveFile.getVarInt(buffer) - 1;
+            long timestamp = buffer.getLong();
+            long hash = buffer.getLong();
+            index.put(slot, new Entry(slot, seed, width, height, moves, timestamp, hash));
+        }
+        return index;
+    }
+}
@@ -0,0 +1,51 @@
+package byow.Core;
+
+import java.util.Random;
+
+/* A Random whose state can be read and restored, so a saved world carries on
+   with exactly the numbers it would have drawn had it never been saved.
+
+   It runs the same 48-bit linear congruential generator as java.util.Random
+   and overrides next, so every method of Random, and every RandomUtils call,
+   returns the same sequence as a plain Random with the same seed. The cached
+   second value of nextGaussian is not part of the state; nothing in World
+   draws Gaussians.
+
+   Random is Serializable, but worlds are saved through World.encode, which
+   stores the state explicitly; this class is never serialized. */
+@SuppressWarnings("serial")
+public class StatefulRandom extends Random {
+    private static final long MULTIPLIER = 0x5DEECE66DL;
+    private static final long ADDEND = 0xBL;
+    private static final long MASK = (1L << 48) - 1;
+
+    /* Set by setSeed, which Random's constructor calls, so this field must
+       not have an initializer. */
+    private long state;
+
+    public StatefulRandom(long seed) {
+        super(seed);
+    }
+
+    @Override
+    public synchronized void setSeed(long seed) {
+        super.setSeed(seed);
+        state = (seed ^ MULTIPLIER) & MASK;
+    }
+
+    @Override
+    protected int next(int bits) {
+        state = (state * MULTIPLIER + ADDEND) & MASK;
+        return (int) (state >>> (48 - bits));
+    }
+
+    /* Returns the generator's 48-bit state. */
+    public long state() {
+        return state;
+    }
+
+    /* Restores a state returned by state. */
+    public void setState(long state) {
+        this.state = state & MASK;
+    }
+}
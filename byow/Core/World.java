@@ -1,17 +1,22 @@
 package byow.Core;
 
+import byow.TileEngine.ChunkedView;
 import byow.TileEngine.TETile;
-import byow.TileEngine.Tileset;
+import byow.TileEngine.TileGrid;
+import byow.TileEngine.Viewport;
 
-import java.awt.*;
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.*;
 import java.util.List;
+import java.util.function.IntPredicate;
+import java.util.function.Supplier;
 
-public class World implements Serializable {
+public class World {
     
-    public class Pos implements Serializable {
+    public class Pos {
         int X;
         int Y;
         
@@ -26,7 +31,7 @@ public class World implements Serializable {
                 result.add(new Pos(this.X - 1, this.Y));
             }
 
-            if (this.X + 1 < world.length) {
+            if (this.X + 1 < world.width()) {
                 result.add(new Pos(this.X + 1, this.Y));
             }
 
@@ -34,7 +39,7 @@ public class World implements Serializable {
                 result.add(new Pos(this.X, this.Y - 1));
             }
 
-            if (this.Y + 1 < world[0].length) {
+            if (this.Y + 1 < world.height()) {
                 result.add(new Pos(this.X, this.Y + 1));
             }
 
@@ -65,9 +70,10 @@ public class World implements Serializable {
 
     }
 
-    private Random random;
+    private long seed;
+    private StatefulRandom random;
 
-    private TETile[][] world;
+    private TileGrid world;
     
     private int MAX_CHAMBER_NUM;
     private int chamberCount;
@@ -75,24 +81,220 @@ public class World implements Serializable {
 
     private Pos avatarPos;
     private Pos monsterPos;
-    private TETile currentTile;
+    private MonsterSwarm monsters;
+
+    /* Cells covered by the chase-path trail. The trail, the avatar and the monsters
+       form an overlay that is composited over the tile grid whenever a view is
+       built, so the grid itself is only written while the world is generated. */
+    private BitSet trail;
+
+    /* Light sources. Source 0 is the lamp that turnLight switches. */
+    private LightMap lights;
+
+    /* What is needed to lay the trail of the initial chase path, which is only
+       worked out the first time anything reads the trail; see ensureTrail. */
+    private static class PendingTrail {
+        private final int avatarX;
+        private final int avatarY;
+        private final int monsterX;
+        private final int monsterY;
+
+        PendingTrail(Pos avatar, Pos monster) {
+            this.avatarX = avatar.X;
+            this.avatarY = avatar.Y;
+            this.monsterX = monster.X;
+            this.monsterY = monster.Y;
+        }
+    }
+
+    private PendingTrail pendingTrail;
+
+    /* The floor cells of one chamber's interior, as flat indices, for drawing
+       spawn cells without retries. draw picks uniformly among the first n
+       entries and moves a rejected cell behind them, so every cell is tried
+       at most once per draw. Cells are never removed, so a cell that is taken
+       now can be drawn again once it is free; a draw only reorders them.
+       floor tells, for each cell numbered within the interior, whether it
+       is in the pool. */
+    private static class SpawnPool {
+        private final int left;
+        private final int bottom;
+        private final int rows;
+        private final int gridHeight;
+        private final int[] cells;
+        private final boolean[] floor;
+        private int size;
+
+        /* Collects the floor cells of LEFT..RIGHT x BOTTOM..UP. */
+        SpawnPool(TileGrid grid, int left, int bottom, int right, int up) {
+            this.left = left;
+            this.bottom = bottom;
+            this.rows = up - bottom + 1;
+            this.gridHeight = grid.height();
+            int[] all = new int[(right - left + 1) * rows];
+            this.floor = new boolean[all.length];
+            for (int x = left; x <= right; x++) {
+                if (!grid.anyFloor(x, bottom, up)) {
+                    continue;
+                }
+                for (int y = bottom; y <= up; y++) {
+                    if (grid.isFloor(x, y)) {
+                        floor[(x - left) * rows + (y - bottom)] = true;
+                        all[size] = grid.index(x, y);
+                        size += 1;
+                    }
+                }
+            }
+            this.cells = Arrays.copyOf(all, size);
+        }
+
+        /* Returns a uniformly random cell that FREE accepts, as a flat index,
+           or -1 if it accepts none. */
+        int draw(Random random, IntPredicate free) {
+            for (int n = size; n > 0; n--) {
+                int i = RandomUtils.uniform(random, n);
+                int v = cells[i];
+                if (free.test(v)) {
+                    return v;
+                }
+                cells[i] = cells[n - 1];
+                cells[n - 1] = v;
+            }
+            return -1;
+        }
+
+        private int local(int v) {
+            return (v / gridHeight - left) * rows + (v % gridHeight - bottom);
+        }
+
+        /* Returns the number of bytes write uses. */
+        int byteSize() {
+            int n = SaveFile.varIntSize(size);
+            for (int i = 0; i < size; i++) {
+                n += SaveFile.varIntSize(local(cells[i]));
+            }
+            return n;
+        }
+
+        /* Writes the cells in their current order, so a loaded pool makes
+           the same draws. */
+        void write(ByteBuffer buffer) {
+            SaveFile.putVarInt(buffer, size);
+            for (int i = 0; i < size; i++) {
+                SaveFile.putVarInt(buffer, local(cells[i]));
+            }
+        }
 
-    private class Chamber implements Serializable {
+        /* Reads the cell numbers written by write, to be applied with
+           reorder once the grid is loaded. */
+        static int[] read(ByteBuffer buffer) throws IOException {
+            int n = SaveFile.getVarInt(buffer);
+            if (n < 0 || n > buffer.remaining()) {
+                throw new IOException("Corrupt spawn pool in save file.");
+            }
+            int[] locals = new int[n];
+            for (int i = 0; i < n; i++) {
+                locals[i] = SaveFile.getVarInt(buffer);
+            }
+            return locals;
+        }
+
+        /* Puts the cells numbered LOCALS first, in their order. Floor cells
+           left out follow in their current order. */
+        void reorder(int[] locals) throws IOException {
+            if (locals.length > size) {
+                throw new IOException("Corrupt spawn pool in save file.");
+            }
+            int n = locals.length;
+            int[] order = new int[size];
+            boolean[] listed = new boolean[floor.length];
+            for (int i = 0; i < n; i++) {
+                int local = locals[i];
+                if (local < 0 || local >= floor.length || !floor[local] || listed[local]) {
+                    throw new IOException("Corrupt spawn pool in save file.");
+                }
+                listed[local] = true;
+                order[i] = (left + local / rows) * gridHeight + bottom + local % rows;
+            }
+            for (int v : cells) {
+                if (!listed[local(v)]) {
+                    order[n++] = v;
+                }
+            }
+            System.arraycopy(order, 0, cells, 0, size);
+        }
+    }
+
+    /* Built on first use for each chamber, and again after loading. */
+    private SpawnPool[] spawnPools;
+
+    /* Binary save formats; see saveWorld. A snapshot holds the whole state,
+       a journal the seed, the latest checkpoint and the actions after it. */
+    private static final int SAVE_MAGIC = 0x42594F57;
+    private static final int JOURNAL_MAGIC = 0x42594F4A;
+    private static final short SAVE_VERSION = 1;
+    private static final short JOURNAL_VERSION = 2;
+    /* A checkpoint snapshot is taken after at least this many actions, so
+       loading a journal replays, and saving one writes, fewer than about this
+       many. */
+    private static final int CHECKPOINT_INTERVAL = 256;
+
+    /* Every gameplay action since the latest checkpoint, or since generation
+       if there is none yet, or null once the world can no longer be rebuilt
+       from its seed, e.g. after loading a snapshot. */
+    private ReplayLog log;
+    /* The maxChamberNum the world was generated with, or -1 for the
+       seed-chosen number. */
+    private int generationChambers;
+    /* Snapshot of the world when log was last started over, and the number
+       of avatar moves before it, which the snapshot does not know. */
+    private ByteBuffer checkpoint;
+    private int checkpointMoves;
+    /* The path returned by the latest updateChasePath until it is hidden
+       again; the only path recoverChasePath can log. */
+    private List<Pos> shownPath;
+    private boolean replaying;
+
+    /* Chamber placement gives up after this many candidates in a row have
+       been rejected, and keeps the chambers placed so far. */
+    private static final int MAX_PLACEMENT_ATTEMPTS = 10000;
+    /* Above this many chambers, the hallway tree is computed from a sparse
+       set of candidate pairs instead of every pair of chambers. */
+    private static final int SPARSE_HALLWAY_THRESHOLD = 64;
+
+    private PathFinder pathFinder;
+    private ChasePlanner chasePlanner;
+    private List<Pos> chasePath;
+    private int chasePathVersion;
+    private DistanceField distanceField;
+    private TETile[][] view;
+    private ChunkedView chunkedView;
+    private TETile[][] screen;
+    private RectIndex chamberIndex;
+
+    private class Chamber {
         private int x;
         private int y;
         private int height;
         private int width;
         
+        Chamber(int x, int y, int width, int height) {
+            this.x = x;
+            this.y = y;
+            this.width = width;
+            this.height = height;
+        }
+
         /*
         set some ceiling of position (x, y) and width and height
         */
         Chamber() {
-            x = RandomUtils.uniform(random, 2, world.length - 2);
-            y = RandomUtils.uniform(random, 2, world[0].length - 2);
+            x = RandomUtils.uniform(random, 2, world.width() - 2);
+            y = RandomUtils.uniform(random, 2, world.height() - 2);
             width = RandomUtils.uniform(random, 2,
-                    3 + Math.min(world.length / 2, 2 * Math.min(x, world.length - x)));
+                    3 + Math.min(world.width() / 2, 2 * Math.min(x, world.width() - x)));
             height = RandomUtils.uniform(random, 2,
-                    3 + Math.min(world[0].length / 2, 2 * Math.min(y, world[0].length - y)));
+                    3 + Math.min(world.height() / 2, 2 * Math.min(y, world.height() - y)));
         }
 
         public int getX() {
@@ -113,27 +315,55 @@ public class World implements Serializable {
     }
 
     World(int width, int height, long seed) {
-        this.random = new Random(seed);
+        this.seed = seed;
+        this.random = new StatefulRandom(seed);
         this.MAX_CHAMBER_NUM = RandomUtils.uniform(random, 5, 15);
+        this.generationChambers = -1;
+        init(width, height);
+        this.log = new ReplayLog();
+    }
+
+    /**
+     * Creates a world that tries to place MAXCHAMBERNUM chambers instead of a
+     * random number between 5 and 15. Fewer are placed if the world fills up.
+     */
+    World(int width, int height, long seed, int maxChamberNum) {
+        this.seed = seed;
+        this.random = new StatefulRandom(seed);
+        this.MAX_CHAMBER_NUM = maxChamberNum;
+        this.generationChambers = maxChamberNum;
+        init(width, height);
+        this.log = new ReplayLog();
+    }
+
+    private void init(int width, int height) {
         this.chambers = new Chamber[MAX_CHAMBER_NUM];
         this.chamberCount = 0;
-        this.world = new TETile[width][height];
+        this.world = new TileGrid(width, height);
+        this.trail = new BitSet(width * height);
+        this.lights = new LightMap();
 
         generateWorld();
     }
 
-    World(Random random, TETile[][] world, int chamberCount, int maxChamberNum,
-          Chamber[] chambers, Pos avatarPos, Pos monsterPos, TETile currentTile) {
+    /* Creates a world with no content, to be filled in by decode. */
+    private World(long seed, StatefulRandom random, TileGrid world, int chamberCount) {
+        this.seed = seed;
         this.random = random;
         this.world = world;
+        this.MAX_CHAMBER_NUM = chamberCount;
         this.chamberCount = chamberCount;
-        this.MAX_CHAMBER_NUM = maxChamberNum;
-        this.chambers = chambers;
-        this.avatarPos = avatarPos;
-        this.monsterPos = monsterPos;
-        this.currentTile = currentTile;
+        this.chambers = new Chamber[chamberCount];
+        this.trail = new BitSet(world.width() * world.height());
     }
 
+    /**
+     * Runs the generation phases in order. Every phase that draws from the
+     * random generator runs right away, so a seed always gives the same
+     * world. The initial chase path draws nothing and only shows up as the
+     * trail overlay, so it is deferred until the trail is first read, and
+     * callers that never look at the trail never pay for the search.
+     */
     public void generateWorld() {
         generateChambers();
 
@@ -144,7 +374,7 @@ public class World implements Serializable {
         createAvatar();
         createMonster();
 
-        updateChasePath();
+        pendingTrail = new PendingTrail(avatarPos, monsterPos);
 
         createDoor();
 
@@ -152,208 +382,317 @@ public class World implements Serializable {
 
     }
 
-    public void createAvatar() {
-        int up = chambers[0].getY() + (chambers[0].getHeight() + 1) / 2;
-        int bottom = chambers[0].getY() - chambers[0].getHeight() / 2;
-        int left = chambers[0].getX() - chambers[0].getWidth() / 2;
-        int right = chambers[0].getX() + (chambers[0].getWidth() + 1) / 2;
-
-        int avatarX = RandomUtils.uniform(random, left + 1, right);
-        int avatarY = RandomUtils.uniform(random, bottom + 1, up);
-        this.avatarPos = new Pos(avatarX, avatarY);
-
-        while (!world[this.avatarPos.X][this.avatarPos.Y].equals(Tileset.FLOOR)) {
-            this.avatarPos.X = RandomUtils.uniform(random, left + 1, right);
-            this.avatarPos.Y = RandomUtils.uniform(random, bottom + 1, up);
+    /* Returns the spawn pool of chamber I, building it if needed. */
+    private SpawnPool spawnPool(int i) {
+        if (spawnPools == null) {
+            spawnPools = new SpawnPool[chamberCount];
         }
-        this.currentTile = world[this.avatarPos.X][this.avatarPos.Y];
-        world[this.avatarPos.X][this.avatarPos.Y] = Tileset.AVATAR;
+        if (spawnPools[i] == null) {
+            Chamber c = chambers[i];
+            spawnPools[i] = new SpawnPool(world, left(c) + 1, bottom(c) + 1,
+                    right(c) - 1, up(c) - 1);
+        }
+        return spawnPools[i];
     }
-    
-    public void createMonster() {
-        Chamber monsterChamber = chambers[chambers.length - 1];
-        int up = monsterChamber.getY() + (monsterChamber.getHeight() + 1) / 2;
-        int bottom = monsterChamber.getY() - monsterChamber.getHeight() / 2;
-        int left = monsterChamber.getX() - monsterChamber.getWidth() / 2;
-        int right = monsterChamber.getX() + (monsterChamber.getWidth() + 1) / 2;
 
-        int monsterX = RandomUtils.uniform(random, left + 1, right);
-        int monsterY = RandomUtils.uniform(random, bottom + 1, up);
-        this.monsterPos = new Pos(monsterX, monsterY);
+    /** Puts the avatar on a uniformly random floor cell of the first chamber. */
+    public void createAvatar() {
+        int v = spawnPool(0).draw(random, c -> true);
+        if (v == -1) {
+            v = world.nextFloor(0);
+        }
+        this.avatarPos = new Pos(v / world.height(), v % world.height());
+    }
 
-        while (!world[this.monsterPos.X][this.monsterPos.Y].equals(Tileset.FLOOR)) {
-            this.monsterPos.X = RandomUtils.uniform(random, left + 1, right);
-            this.monsterPos.Y = RandomUtils.uniform(random, bottom + 1, up);
+    /**
+     * Puts the first monster on a uniformly random floor cell of the last
+     * chamber other than the avatar's cell.
+     */
+    public void createMonster() {
+        int avatar = world.index(avatarPos.X, avatarPos.Y);
+        int v = spawnPool(chamberCount - 1).draw(random, c -> c != avatar);
+        if (v == -1) {
+            /* Only when the avatar took the single cell of the only chamber. */
+            v = world.nextFloor(0);
+            if (v == world.index(avatarPos.X, avatarPos.Y)) {
+                v = world.nextFloor(v + 1);
+            }
+            if (v == -1) {
+                throw new IllegalArgumentException("World has no room for a monster.");
+            }
         }
-        this.currentTile = world[this.monsterPos.X][this.monsterPos.Y];
-        world[this.monsterPos.X][this.monsterPos.Y] = Tileset.MOUNTAIN;
+        this.monsterPos = new Pos(v / world.height(), v % world.height());
+        this.monsters = new MonsterSwarm(world.width(), world.height());
+        monsters.add(monsterPos.X, monsterPos.Y);
     }
 
-    public List<Pos> updateChasePath() {
-        List<Pos> path = shortestPath(avatarPos, monsterPos);
-        for (Pos pos : path) {
-            if (pos.equals(avatarPos) || pos.equals(monsterPos)) {
-                continue;
+    /**
+     * Spawns up to N more monsters on free floor cells of randomly chosen chambers
+     * other than the avatar's. Every cell is drawn from the chamber's spawn pool,
+     * so a cell is tried at most once per monster and a full chamber is skipped
+     * after one pass over it. Returns the number actually spawned.
+     */
+    public int addMonsters(int n) {
+        if (chamberCount < 2) {
+            return 0;
+        }
+
+        int spawned = 0;
+        for (int k = 0; k < n; k++) {
+            SpawnPool pool = spawnPool(RandomUtils.uniform(random, 1, chamberCount));
+            int avatar = world.index(avatarPos.X, avatarPos.Y);
+            int v = pool.draw(random, c -> c != avatar
+                    && !monsters.isOccupied(c / world.height(), c % world.height()));
+            if (v != -1) {
+                monsters.add(v / world.height(), v % world.height());
+                spawned += 1;
             }
-            world[pos.X][pos.Y] = new TETile(Tileset.TREE.character(),
-                    Tileset.TREE.textColor(),
-                    world[pos.X][pos.Y].backgroundColor(),
-                    Tileset.TREE.description());
         }
+        record(ReplayLog.ADD_MONSTERS, n);
+        return spawned;
+    }
 
+    /* Returns the number of monsters in the world. */
+    public int monsterCount() {
+        return monsters.size();
+    }
+
+    public List<Pos> updateChasePath() {
+        ensureTrail();
+        List<Pos> path = layChasePath();
+        shownPath = path;
+        record(ReplayLog.SHOW_PATH);
         return path;
     }
 
-    public void recoverChasePath(List<Pos> path) {
+    /* Marks the current chase path on the trail, except the cells of the
+       avatar and the monster, and returns it. */
+    private List<Pos> layChasePath() {
+        List<Pos> path = chasePath();
         for (Pos pos : path) {
             if (pos.equals(avatarPos) || pos.equals(monsterPos)) {
                 continue;
             }
-            world[pos.X][pos.Y] = new TETile(Tileset.FLOOR.character(),
-                    Tileset.FLOOR.textColor(),
-                    world[pos.X][pos.Y].backgroundColor(),
-                    Tileset.FLOOR.description());
+            trail.set(world.index(pos.X, pos.Y));
         }
+        return path;
     }
 
-    public boolean monsterChase(List<Pos> path) {
-        if (path.size() <= 1) {
-            return false;
+    /**
+     * Returns the shortest path from the avatar to the monster. The planner keeps
+     * its search state between calls, so only what the latest moves invalidated
+     * is searched again, and the same list is returned while nothing has moved.
+     */
+    private List<Pos> chasePath() {
+        if (chasePlanner == null) {
+            chasePlanner = new ChasePlanner(world);
         }
 
-        world[monsterPos.X][monsterPos.Y] = new TETile(Tileset.FLOOR.character(),
-                Tileset.FLOOR.textColor(),
-                world[monsterPos.X][monsterPos.Y].backgroundColor(),
-                Tileset.FLOOR.description());
-        monsterPos = path.get(path.size() - 2);
-        world[monsterPos.X][monsterPos.Y] = new TETile(Tileset.MOUNTAIN.character(),
-                Tileset.MOUNTAIN.textColor(),
-                world[monsterPos.X][monsterPos.Y].backgroundColor(),
-                Tileset.MOUNTAIN.description());
-        return true;
+        int length = chasePlanner.plan(avatarPos.X, avatarPos.Y, monsterPos.X, monsterPos.Y);
+        if (chasePath == null || chasePathVersion != chasePlanner.version()) {
+            chasePath = new ArrayList<>(length);
+            for (int i = 0; i < length; i++) {
+                chasePath.add(new Pos(chasePlanner.pathX(i), chasePlanner.pathY(i)));
+            }
+            chasePathVersion = chasePlanner.version();
+        }
+        return chasePath;
     }
 
-    private class Pair {
-        Pos vertex;
-        int distance;
-
-        Pair(Pos vertex, int distance) {
-            this.vertex = vertex;
-            this.distance = distance;
+    public void recoverChasePath(List<Pos> path) {
+        ensureTrail();
+        for (Pos pos : path) {
+            trail.clear(world.index(pos.X, pos.Y));
         }
+        if (path == shownPath) {
+            shownPath = null;
+            record(ReplayLog.HIDE_PATH);
+        } else {
+            /* Any other path cannot be replayed from the log. */
+            log = null;
+        }
+    }
+
+    /**
+     * Moves every monster one step towards the avatar in a single batched pass
+     * over the avatar-rooted distance field, which is only rebuilt after the
+     * avatar has moved. Returns false if a monster has already caught the avatar.
+     */
+    public boolean monsterChase() {
+        boolean caught = monsters.tick(distanceField());
+        monsterPos.X = monsters.x(0);
+        monsterPos.Y = monsters.y(0);
+        record(ReplayLog.CHASE);
+        return !caught;
     }
 
-    class PairComparator implements Comparator<Pair> {
-        public int compare(Pair p1, Pair p2) {
-            return p1.distance - p2.distance;
+    private DistanceField distanceField() {
+        if (distanceField == null) {
+            distanceField = new DistanceField(world);
         }
+        distanceField.setRoot(avatarPos.X, avatarPos.Y);
+        return distanceField;
     }
 
-    /* Dijkstra’s algorithm. Returns the shortest path from START to STOP. If no path
+    /* A* over the tile grid. Returns the shortest path from START to STOP. If no path
        exists, returns an empty List. If START == STOP, returns a List with START. */
     public List<Pos> shortestPath(Pos start, Pos stop) {
-        if (start.equals(stop)) {
-            List<Pos> result = new ArrayList<>();
-            result.add(start);
-            return result;
+        if (pathFinder == null) {
+            pathFinder = new PathFinder(world.width(), world.height());
         }
 
-        PriorityQueue<Pair> fringe = new PriorityQueue<Pair>(new PairComparator());
-        HashSet<Pos> visited = new HashSet<>();
-        HashMap<Pos, Integer> distTo = new HashMap<>();
-        HashMap<Pos, Pos> edgeTo = new HashMap<>();
-
-        fringe.add(new Pair(start, 0));
-        distTo.put(start, 0);
-
-        while (!fringe.isEmpty() && !visited.contains(stop)) {
-            Pair curr = fringe.poll();
-            visited.add(curr.vertex);
-            for (Pos neighbor : curr.vertex.neighbors()) {
-                if (world[neighbor.X][neighbor.Y].character() == Tileset.WALL.character()) {
-                    continue;
-                }
-
-                if (visited.contains(neighbor)) {
-                    continue;
-                }
+        int length = pathFinder.search(world, start.X, start.Y, stop.X, stop.Y);
+        List<Pos> result = new ArrayList<>(length);
+        for (int i = 0; i < length; i++) {
+            result.add(new Pos(pathFinder.pathX(i), pathFinder.pathY(i)));
+        }
+        return result;
+    }
 
-                if (!distTo.containsKey(neighbor) || distTo.get(neighbor) > curr.distance + 1) {
-                    distTo.put(neighbor, curr.distance + 1);
-                    edgeTo.put(neighbor, curr.vertex);
-                    fringe.add(new Pair(neighbor, curr.distance + 1));
+    /**
+     * Returns true if the avatar can walk to the locked door, i.e. the world
+     * can be won.
+     */
+    public boolean isDoorReachable() {
+        for (int x = 0; x < world.width(); x++) {
+            for (int y = 0; y < world.height(); y++) {
+                if (world.get(x, y) == TileGrid.LOCKED_DOOR) {
+                    return !shortestPath(avatarPos, new Pos(x, y)).isEmpty();
                 }
             }
         }
+        return false;
+    }
 
+    public int getChamberCount() {
+        return chamberCount;
+    }
 
-        Pos postVertice = stop;
-        List<Pos> result = new ArrayList<>();
-        result.add(postVertice);
-        while (!postVertice.equals(start)) {
-            postVertice = edgeTo.get(postVertice);
-            result.add(postVertice);
-        }
-        Collections.reverse(result);
-        return result;
+    /** Returns a hash of the tile grid; equal worlds have equal hashes. */
+    public long contentHash() {
+        return world.contentHash();
+    }
+
+    /** Returns the number of floor tiles. */
+    public int floorCount() {
+        return world.floorCount();
     }
 
+    /**
+     * Places the locked door on a uniformly random wall cell of the last
+     * chamber's outline, corners excluded. Each such cell lies next to the
+     * chamber's floor, so the door can always be reached. Cells a hallway has
+     * opened up are not walls anymore and are skipped.
+     */
     public void createDoor() {
-        int up = chambers[chamberCount - 1].getY()
-                + (chambers[chamberCount - 1].getHeight() + 1) / 2;
-        int bottom = chambers[chamberCount - 1].getY()
-                - chambers[chamberCount - 1].getHeight() / 2;
-        int left = chambers[chamberCount - 1].getX()
-                - chambers[chamberCount - 1].getWidth() / 2;
-        int right = chambers[chamberCount - 1].getX()
-                + (chambers[chamberCount - 1].getWidth() + 1) / 2;
-        if (RandomUtils.uniform(random) < 0.5) {
-            if (RandomUtils.uniform(random) < 0.5) {
-                int rand = RandomUtils.uniform(random, bottom + 1, up);
-//                while (world[left][rand].character() != Tileset.WALL.character()) {
-//                    rand = RandomUtils.uniform(random, bottom + 1, up);
-//                }
-                world[left][rand] = Tileset.LOCKED_DOOR;
-            } else {
-                int rand = RandomUtils.uniform(random, bottom + 1, up);
-//                while (world[right][rand].character() != Tileset.WALL.character()) {
-//                    rand = RandomUtils.uniform(random, bottom + 1, up);
-//                }
-                world[right][rand] = Tileset.LOCKED_DOOR;
-            }
-        } else {
-            if (RandomUtils.uniform(random) < 0.5) {
-                int rand = RandomUtils.uniform(random, left + 1, right);
-//                while (world[rand][up].character() != Tileset.WALL.character()) {
-//                    rand = RandomUtils.uniform(random, left + 1, right);
-//                }
-                world[rand][up] = Tileset.LOCKED_DOOR;
-            } else {
-                int rand = RandomUtils.uniform(random, left + 1, right);
-//                while (world[rand][bottom].character() != Tileset.WALL.character()) {
-//                    rand = RandomUtils.uniform(random, left + 1, right);
-//                }
-                world[rand][bottom] = Tileset.LOCKED_DOOR;
+        Chamber c = chambers[chamberCount - 1];
+        int left = left(c);
+        int right = right(c);
+        int bottom = bottom(c);
+        int up = up(c);
+
+        int[] walls = new int[2 * (right - left - 1) + 2 * (up - bottom - 1)];
+        int count = 0;
+        for (int x = left + 1; x < right; x++) {
+            count = addIfWall(walls, count, x, bottom);
+            count = addIfWall(walls, count, x, up);
+        }
+        for (int y = bottom + 1; y < up; y++) {
+            count = addIfWall(walls, count, left, y);
+            count = addIfWall(walls, count, right, y);
+        }
+        if (count == 0) {
+            /* Hallways opened the whole outline; the door then stands in one
+               of the openings, which is still next to the chamber. */
+            placeDoor(left + 1, bottom);
+            return;
+        }
+        int v = walls[RandomUtils.uniform(random, count)];
+        placeDoor(v / world.height(), v % world.height());
+    }
+
+    private int addIfWall(int[] walls, int count, int x, int y) {
+        if (world.get(x, y) != TileGrid.WALL) {
+            return count;
+        }
+        walls[count] = world.index(x, y);
+        return count + 1;
+    }
+
+    /**
+     * Lays the deferred initial trail, if there is one: the chase path
+     * between the spawn points, planned by the same ChasePlanner query the
+     * first tick makes. While neither end has moved, that tick gets the very
+     * same path back and hiding it clears the whole initial trail. The door
+     * is left uncovered, as generation used to place it over the trail.
+     * Nothing but the trail and the planner is touched.
+     */
+    private void ensureTrail() {
+        if (pendingTrail == null) {
+            return;
+        }
+        PendingTrail p = pendingTrail;
+        pendingTrail = null;
+        if (chasePlanner == null) {
+            chasePlanner = new ChasePlanner(world);
+        }
+
+        int length = chasePlanner.plan(p.avatarX, p.avatarY, p.monsterX, p.monsterY);
+        for (int i = 0; i < length; i++) {
+            int x = chasePlanner.pathX(i);
+            int y = chasePlanner.pathY(i);
+            if ((x == p.avatarX && y == p.avatarY) || (x == p.monsterX && y == p.monsterY)
+                    || world.get(x, y) == TileGrid.LOCKED_DOOR) {
+                continue;
             }
+            trail.set(world.index(x, y));
         }
     }
 
+    private void placeDoor(int x, int y) {
+        world.set(x, y, TileGrid.LOCKED_DOOR);
+        trail.clear(world.index(x, y));
+        if (chasePlanner != null) {
+            chasePlanner.cellChanged(x, y);
+        }
+        if (distanceField != null) {
+            distanceField.invalidate();
+        }
+    }
+
+    /**
+     * Places up to MAX_CHAMBER_NUM chambers by rejection sampling. Overlap
+     * tests go through a spatial index of the chambers placed so far. If
+     * MAX_PLACEMENT_ATTEMPTS candidates in a row are rejected, the world is
+     * considered full and the chambers array is trimmed to the ones placed.
+     */
     public void generateChambers() {
+        chamberIndex = new RectIndex(world.width(), world.height());
+        int attempts = 0;
         while (chamberCount < MAX_CHAMBER_NUM) {
             Chamber newChamber = new Chamber();
             if (isChamberValid(newChamber) && !isOverlapWithPreviousChambers(newChamber)) {
                 chambers[chamberCount] = newChamber;
                 chamberCount += 1;
+                chamberIndex.add(left(newChamber), bottom(newChamber),
+                        right(newChamber), up(newChamber));
+                attempts = 0;
+            } else {
+                attempts += 1;
+                if (attempts == MAX_PLACEMENT_ATTEMPTS) {
+                    if (chamberCount == 0) {
+                        throw new IllegalArgumentException("World is too small for a chamber.");
+                    }
+                    chambers = Arrays.copyOf(chambers, chamberCount);
+                    MAX_CHAMBER_NUM = chamberCount;
+                }
             }
         }
+        chamberIndex = null;
     }
 
     public void fillChambersIntoWorld() {
-        for (int x = 0; x < world.length; x++) {
-            for (int y = 0; y < world[0].length; y++) {
-                world[x][y] = Tileset.NOTHING;
-            }
-        }
+        world.fill(TileGrid.NOTHING);
 
         for (Chamber c : chambers) {
             int up = c.getY() + (c.getHeight() + 1) / 2;
@@ -362,26 +701,104 @@ public class World implements Serializable {
             int right = c.getX() + (c.getWidth() + 1) / 2;
 
             for (int x = left; x <= right; x++) {
-                world[x][up] = Tileset.WALL;
-                world[x][bottom] = Tileset.WALL;
+                world.set(x, up, TileGrid.WALL);
+                world.set(x, bottom, TileGrid.WALL);
             }
 
             for (int y = bottom; y <= up; y++) {
-                world[left][y] = Tileset.WALL;
-                world[right][y] = Tileset.WALL;
+                world.set(left, y, TileGrid.WALL);
+                world.set(right, y, TileGrid.WALL);
             }
 
             for (int x = left + 1; x < right; x++) {
                 for (int y = bottom + 1; y < up; y++) {
-                    world[x][y] = Tileset.FLOOR;
+                    world.set(x, y, TileGrid.FLOOR);
                 }
             }
         }
     }
 
 
+    /**
+     * Returns a TETile[][] view of the world. The array is reused between calls
+     * and refilled from the tile grid each time, so callers that need to keep a
+     * snapshot should copy it.
+     */
     public TETile[][] getWorld() {
-        return this.world;
+        ensureTrail();
+        if (view == null) {
+            view = new TETile[world.width()][world.height()];
+        }
+        world.toTiles(view);
+
+        int height = world.height();
+        for (int v = trail.nextSetBit(0); v >= 0; v = trail.nextSetBit(v + 1)) {
+            overlay(view, 0, 0, v / height, v % height, TileGrid.TREE);
+        }
+        overlay(view, 0, 0, avatarPos.X, avatarPos.Y, TileGrid.AVATAR);
+        for (int i = 0; i < monsters.size(); i++) {
+            overlay(view, 0, 0, monsters.x(i), monsters.y(i), TileGrid.MONSTER);
+        }
+        return view;
+    }
+
+    /**
+     * Returns the part of the world under VIEWPORT as a viewport-sized
+     * TETile[][], with the trail, avatar and monsters on top. Only the chunks
+     * that intersect the viewport are read, so the cost does not grow with the
+     * size of the world. The array is reused between calls.
+     */
+    public TETile[][] getView(Viewport viewport) {
+        ensureTrail();
+        if (screen == null || screen.length != viewport.width()
+                || screen[0].length != viewport.height()) {
+            screen = new TETile[viewport.width()][viewport.height()];
+        }
+        if (chunkedView == null) {
+            chunkedView = new ChunkedView(world,
+                    2 * ChunkedView.chunksPerScreen(viewport.width(), viewport.height()));
+        }
+        chunkedView.render(viewport, screen);
+
+        int x0 = viewport.x();
+        int y0 = viewport.y();
+        int x1 = Math.min(x0 + viewport.width(), world.width());
+        int y1 = Math.min(y0 + viewport.height(), world.height());
+        int height = world.height();
+        for (int x = x0; x < x1; x++) {
+            int end = x * height + y1;
+            for (int v = trail.nextSetBit(x * height + y0); v >= 0 && v < end;
+                 v = trail.nextSetBit(v + 1)) {
+                overlay(screen, x0, y0, x, v % height, TileGrid.TREE);
+            }
+        }
+        if (viewport.contains(avatarPos.X, avatarPos.Y)) {
+            overlay(screen, x0, y0, avatarPos.X, avatarPos.Y, TileGrid.AVATAR);
+        }
+        for (int i = 0; i < monsters.size(); i++) {
+            if (viewport.contains(monsters.x(i), monsters.y(i))) {
+                overlay(screen, x0, y0, monsters.x(i), monsters.y(i), TileGrid.MONSTER);
+            }
+        }
+        return screen;
+    }
+
+    /* Draws tile ID over world cell (X, Y) in OUT, whose origin is the world
+       cell (X0, Y0). */
+    private void overlay(TETile[][] out, int x0, int y0, int x, int y, byte id) {
+        out[x - x0][y - y0] = TileGrid.tileOf(id, world.light(x, y));
+    }
+
+    public int getWidth() {
+        return world.width();
+    }
+
+    public int getHeight() {
+        return world.height();
+    }
+
+    public Pos getAvatarPos() {
+        return avatarPos;
     }
 
     /**
@@ -389,9 +806,9 @@ public class World implements Serializable {
     * not overlap with the independent chambers
     */
     public boolean isChamberValid(Chamber chamber) {
-        return chamber.getX() + (chamber.getWidth() + 1) / 2 < world.length
+        return chamber.getX() + (chamber.getWidth() + 1) / 2 < world.width()
                 && chamber.getX() - chamber.getWidth() / 2 >= 0
-                && chamber.getY() + (chamber.getHeight() + 1) / 2 < world[0].length
+                && chamber.getY() + (chamber.getHeight() + 1) / 2 < world.height()
                 && chamber.getY() - chamber.getHeight() / 2 >= 0;
     }
     
@@ -400,6 +817,10 @@ public class World implements Serializable {
     }
 
     public boolean isOverlapWithPreviousChambers(Chamber chamber) {
+        if (chamberIndex != null) {
+            return chamberIndex.touches(left(chamber), bottom(chamber),
+                    right(chamber), up(chamber));
+        }
         for (int i = 0; i < chamberCount; i++) {
             if (isChamberOverlap(chambers[i], chamber)) {
                 return true;
@@ -408,6 +829,25 @@ public class World implements Serializable {
         return false;
     }
 
+    /* Cell bounds of a chamber, walls included. Two chambers overlap in the
+       sense of isChamberOverlap exactly when these boxes, grown by one cell,
+       intersect. */
+    private static int left(Chamber c) {
+        return c.getX() - c.getWidth() / 2;
+    }
+
+    private static int right(Chamber c) {
+        return c.getX() + (c.getWidth() + 1) / 2;
+    }
+
+    private static int bottom(Chamber c) {
+        return c.getY() - c.getHeight() / 2;
+    }
+
+    private static int up(Chamber c) {
+        return c.getY() + (c.getHeight() + 1) / 2;
+    }
+
     private boolean isXOverlap(Chamber a, Chamber b) {
         if (a.getX() <= b.getX()) {
             return a.getX() + (a.getWidth() + 1) / 2 >= b.getX() - b.getWidth() / 2 - 1;
@@ -440,278 +880,565 @@ public class World implements Serializable {
         return graph;
     }
 
+    /**
+     * Returns a minimum spanning tree of the chamber centers under Manhattan
+     * distance, the same total length as makeGraph().kruskals(), computed
+     * without building the complete graph.
+     */
+    public Graph makeSpanningTree() {
+        int[] xs = new int[chambers.length];
+        int[] ys = new int[chambers.length];
+        for (int i = 0; i < chambers.length; i++) {
+            xs[i] = chambers[i].getX();
+            ys[i] = chambers[i].getY();
+        }
+        return Graph.manhattanMST(xs, ys);
+    }
+
     private int distanceOf(Chamber c1, Chamber c2) {
         return Math.abs(c1.getX() - c2.getX()) + Math.abs(c1.getY() - c2.getY());
     }
 
+    /**
+     * Connects the chambers along a minimum spanning tree of their centers.
+     * Small worlds use the complete graph, which keeps their layout unchanged.
+     */
     public void buildHallway() {
-        Graph graph = makeGraph();
+        Graph tree = chambers.length > SPARSE_HALLWAY_THRESHOLD
+                ? makeSpanningTree() : makeGraph().kruskals();
 
-        TreeSet<Edge> edges = graph.kruskals().getAllEdges();
+        TreeSet<Edge> edges = tree.getAllEdges();
         for (Edge edge : edges) {
             fillHallwayIntoWorld(edge.getSource(), edge.getDest());
         }
     }
 
+    /**
+     * Carves an L-shaped hallway between chambers i and j: along the row of
+     * chamber i to the column of chamber j, then along that column to
+     * chamber j.
+     */
     public void fillHallwayIntoWorld(int i, int j) {
         int startX = chambers[i].getX();
         int endX = chambers[j].getX();
         int startY = chambers[i].getY();
         int endY = chambers[j].getY();
 
-        if (startX <= endX && startY <= endY) {
-
-            helperStartXLTEndX(startX, endX, startY, endY);
-
-            helperStartYLTEndY(startX, endX, startY, endY);
-
-        } else if (startX > endX && startY <= endY) {
+        world.carveRow(startY, startX, endX);
+        world.carveColumn(endX, startY, endY);
+    }
 
-            helperStartXGTEndX(startX, endX, startY, endY);
+    /* Returns the tile under the avatar, lit as the cell it stands on. */
+    public TETile getCurrentTile() {
+        ensureTrail();
+        int x = avatarPos.X;
+        int y = avatarPos.Y;
+        byte id = world.get(x, y);
+        if (monsters.isOccupied(x, y)) {
+            id = TileGrid.MONSTER;
+        } else if (trail.get(world.index(x, y))) {
+            id = TileGrid.TREE;
+        }
+        return TileGrid.tileOf(id, world.light(x, y));
+    }
 
-            helperStartYLTEndY(startX, endX, startY, endY);
+    /** Returns true if the avatar stands on the locked door, i.e. has won. */
+    public boolean isAvatarAtDoor() {
+        return world.get(avatarPos.X, avatarPos.Y) == TileGrid.LOCKED_DOOR;
+    }
 
-        } else if (startX <= endX && startY > endY) {
+    public void moveUp() {
+        if (world.isWalkable(this.avatarPos.X, this.avatarPos.Y + 1)) {
+            this.avatarPos.Y += 1;
+        }
+        record(ReplayLog.UP);
+    }
 
-            helperStartXLTEndX(startX, endX, startY, endY);
+    public void moveDown() {
+        if (world.isWalkable(this.avatarPos.X, this.avatarPos.Y - 1)) {
+            this.avatarPos.Y -= 1;
+        }
+        record(ReplayLog.DOWN);
+    }
 
-            helperStartYGTEndY(startX, endX, startY, endY);
+    public void moveLeft() {
+        if (world.isWalkable(this.avatarPos.X - 1, this.avatarPos.Y)) {
+            this.avatarPos.X -= 1;
+        }
+        record(ReplayLog.LEFT);
+    }
 
-        } else if (startX > endX && startY > endY) {
+    public void moveRight() {
+        if (world.isWalkable(this.avatarPos.X + 1, this.avatarPos.Y)) {
+            this.avatarPos.X += 1;
+        }
+        record(ReplayLog.RIGHT);
+    }
 
-            helperStartXGTEndX(startX, endX, startY, endY);
+    /**
+     * Adds a light source at (x, y) in chamber c that lights the chamber's
+     * floor, with the given intensity, and switches it on.
+     * @return the index of the new source, for toggleLight
+     */
+    public int addLight(int c, int x, int y, int strength) {
+        int i = placeLight(c, x, y, strength);
+        record(ReplayLog.ADD_LIGHT, c, x, y, strength);
+        return i;
+    }
 
-            helperStartYGTEndY(startX, endX, startY, endY);
+    private int placeLight(int c, int x, int y, int strength) {
+        Chamber chamber = chambers[c];
+        int i = lights.add(x, y, strength, left(chamber) + 1, bottom(chamber) + 1,
+                right(chamber) - 1, up(chamber) - 1);
+        lights.set(world, i, true);
+        return i;
+    }
 
-        }
+    /* Adds the lamp in the middle chamber, switched on. */
+    private void placeLamp() {
+        Chamber lightedChamber = chambers[chambers.length / 2];
+        placeLight(chambers.length / 2, lightedChamber.getX(), lightedChamber.getY(),
+                TileGrid.MAX_LIGHT);
+    }
 
+    /** Switches light source i on or off. */
+    public void toggleLight(int i) {
+        lights.toggle(world, i);
+        record(ReplayLog.TOGGLE_LIGHT, i);
     }
 
-    private void helperStartXLTEndX(int startX, int endX, int startY, int endY) {
-        for (int k = startX; k <= endX; k++) {
-            if (isInsideFloor(k, startY)) {
-                continue;
-            } else {
-                world[k][startY] = Tileset.FLOOR;
-                if (!world[k][startY - 1].equals(Tileset.FLOOR)) {
-                    world[k][startY - 1] = Tileset.WALL;
-                }
-                if (!world[k][startY + 1].equals(Tileset.FLOOR)) {
-                    world[k][startY + 1] = Tileset.WALL;
-                }
-            }
+    /** Switches the lamp in the middle chamber on or off, adding it the first time. */
+    public void turnLight() {
+        if (lights.size() == 0) {
+            placeLamp();
+        } else {
+            lights.toggle(world, 0);
         }
+        record(ReplayLog.TURN_LIGHT);
     }
 
-    private void helperStartXGTEndX(int startX, int endX, int startY, int endY) {
-        for (int k = startX; k >= endX; k--) {
-            if (isInsideFloor(k, startY)) {
-                continue;
-            } else {
-                world[k][startY] = Tileset.FLOOR;
-                if (!world[k][startY - 1].equals(Tileset.FLOOR)) {
-                    world[k][startY - 1] = Tileset.WALL;
-                }
-                if (!world[k][startY + 1].equals(Tileset.FLOOR)) {
-                    world[k][startY + 1] = Tileset.WALL;
-                }
-            }
+    public void turnOnLight() {
+        if (lights.size() == 0) {
+            placeLamp();
+        } else {
+            lights.set(world, 0, true);
         }
+        record(ReplayLog.LIGHT_ON);
     }
 
-    private void helperStartYLTEndY(int startX, int endX, int startY, int endY) {
-        for (int k = startY; k <= endY; k++) {
-            if (isInsideFloor(endX, k)) {
-                continue;
-            } else {
-                world[endX][k] = Tileset.FLOOR;
-                if (!world[endX - 1][k].equals(Tileset.FLOOR)) {
-                    world[endX - 1][k] = Tileset.WALL;
-                }
-                if (!world[endX + 1][k].equals(Tileset.FLOOR)) {
-                    world[endX + 1][k] = Tileset.WALL;
-                }
-            }
+    public void turnOffLight() {
+        if (lights.size() > 0) {
+            lights.set(world, 0, false);
         }
+        record(ReplayLog.LIGHT_OFF);
     }
 
-    private void helperStartYGTEndY(int startX, int endX, int startY, int endY) {
-        for (int k = startY; k >= endY; k--) {
-            if (isInsideFloor(endX, k)) {
-                continue;
-            } else {
-                world[endX][k] = Tileset.FLOOR;
-                if (!world[endX - 1][k].equals(Tileset.FLOOR)) {
-                    world[endX - 1][k] = Tileset.WALL;
-                }
-                if (!world[endX + 1][k].equals(Tileset.FLOOR)) {
-                    world[endX + 1][k] = Tileset.WALL;
-                }
-            }
+    /* Appends an action to the log, unless it is being replayed from it, and
+       takes a checkpoint when one is due. Checkpoints are never taken right
+       after SHOW_PATH or HIDE_PATH, which may still be folded into a TICK,
+       nor while a path is shown, since replay needs the SHOW_PATH that a
+       HIDE_PATH undoes. */
+    private void record(byte code) {
+        if (log == null || replaying) {
+            return;
+        }
+        log.add(code);
+        if (code != ReplayLog.SHOW_PATH && code != ReplayLog.HIDE_PATH) {
+            checkpointIfDue();
         }
     }
 
-    private boolean isInsideFloor(int x, int y) {
-
-        int countTrue = 0;
-
-        if (world[x][y - 1].equals(Tileset.FLOOR)) {
-            countTrue += 1;
+    private void record(byte code, int arg) {
+        if (log == null || replaying) {
+            return;
         }
+        log.add(code, arg);
+        checkpointIfDue();
+    }
 
-        if (world[x][y + 1].equals(Tileset.FLOOR)) {
-            countTrue += 1;
+    private void record(byte code, int a, int b, int c, int d) {
+        if (log == null || replaying) {
+            return;
         }
+        log.add(code, a, b, c, d);
+        checkpointIfDue();
+    }
 
-        if (world[x - 1][y].equals(Tileset.FLOOR)) {
-            countTrue += 1;
+    /* The checkpoint covers every action logged so far, so the log starts over.
+       It is replaced rather than cleared, since saves in progress may still
+       hold snapshots of it. */
+    private void checkpointIfDue() {
+        if (shownPath == null && log.actions() >= CHECKPOINT_INTERVAL) {
+            ensureTrail();
+            checkpoint = encode();
+            checkpointMoves += log.moves();
+            log = new ReplayLog();
         }
+    }
 
-        if (world[x + 1][y].equals(Tileset.FLOOR)) {
-            countTrue += 1;
+    /* Applies the actions of LOG without logging them. */
+    private void replay(ReplayLog actions) {
+        replaying = true;
+        try {
+            List<Pos> path = null;
+            for (int i = 0; i < actions.length();
+                 i += 1 + ReplayLog.argCount(actions.get(i))) {
+                switch (actions.get(i)) {
+                    case ReplayLog.UP:
+                        moveUp();
+                        break;
+                    case ReplayLog.DOWN:
+                        moveDown();
+                        break;
+                    case ReplayLog.LEFT:
+                        moveLeft();
+                        break;
+                    case ReplayLog.RIGHT:
+                        moveRight();
+                        break;
+                    case ReplayLog.TURN_LIGHT:
+                        turnLight();
+                        break;
+                    case ReplayLog.LIGHT_ON:
+                        turnOnLight();
+                        break;
+                    case ReplayLog.LIGHT_OFF:
+                        turnOffLight();
+                        break;
+                    case ReplayLog.SHOW_PATH:
+                        path = updateChasePath();
+                        break;
+                    case ReplayLog.HIDE_PATH:
+                        recoverChasePath(path);
+                        break;
+                    case ReplayLog.CHASE:
+                        monsterChase();
+                        break;
+                    case ReplayLog.TICK:
+                        recoverChasePath(updateChasePath());
+                        monsterChase();
+                        break;
+                    case ReplayLog.TOGGLE_LIGHT:
+                        toggleLight(actions.get(i + 1));
+                        break;
+                    case ReplayLog.ADD_LIGHT:
+                        addLight(actions.get(i + 1), actions.get(i + 2),
+                                actions.get(i + 3), actions.get(i + 4));
+                        break;
+                    case ReplayLog.ADD_MONSTERS:
+                        addMonsters(actions.get(i + 1));
+                        break;
+                    default:
+                        throw new IllegalStateException("Unknown action " + actions.get(i));
+                }
+            }
+        } finally {
+            replaying = false;
         }
+    }
 
-        return world[x][y].equals(Tileset.FLOOR) && countTrue >= 2;
+    /** Returns the seed this world was generated from. */
+    public long getSeed() {
+        return seed;
     }
 
-    public TETile getCurrentTile() {
-        return currentTile;
+    /**
+     * Returns the number of avatar moves since the world was generated,
+     * blocked ones included, or -1 if the world was loaded from a snapshot
+     * and no longer knows.
+     */
+    public int getMoveCount() {
+        return log == null ? -1 : checkpointMoves + log.moves();
     }
 
-    public void moveUp() {
-        if (world[this.avatarPos.X][this.avatarPos.Y + 1].character() == Tileset.WALL.character()) {
-            return;
+    /**
+     * Saves the world to previousWorld.txt. A world that can still be
+     * rebuilt from its seed is saved as a journal, see encodeJournal, which
+     * stays small however long the game has run. Any other world is saved as
+     * a full snapshot, see encode.
+     */
+    public void saveWorld() {
+        try {
+            SaveFile.writeAtomically(savePath(), saveSnapshot().get());
+        } catch (IOException excp) {
+            System.out.println(excp.getMessage());
         }
-        world[this.avatarPos.X][this.avatarPos.Y] = this.currentTile;
-
-        this.avatarPos.Y += 1;
-        this.currentTile = world[this.avatarPos.X][this.avatarPos.Y];
-        world[this.avatarPos.X][this.avatarPos.Y] = new TETile(Tileset.AVATAR.character(),
-                Tileset.AVATAR.textColor(),
-                world[this.avatarPos.X][this.avatarPos.Y].backgroundColor(),
-                Tileset.AVATAR.description());
     }
 
-    public void moveDown() {
-        if (world[this.avatarPos.X][this.avatarPos.Y - 1].character() == Tileset.WALL.character()) {
-            return;
+    /**
+     * Captures what saveWorld would write, for encoding later, possibly on
+     * another thread, while the game goes on. A journal only captures a
+     * snapshot of the actions since the latest checkpoint and the checkpoint
+     * itself, which is never changed once taken, so this is cheap however
+     * long the game has run. A
+     * world saved as a full snapshot is encoded right away.
+     * @return a supplier of the encoded save, which may be called once
+     */
+    public Supplier<ByteBuffer> saveSnapshot() {
+        if (log == null) {
+            ensureTrail();
+            ByteBuffer snapshot = encode();
+            return () -> snapshot;
         }
-        world[this.avatarPos.X][this.avatarPos.Y] = this.currentTile;
+        long seed = this.seed;
+        int width = world.width();
+        int height = world.height();
+        int chambers = generationChambers;
+        ReplayLog actions = log.snapshot();
+        int moves = checkpointMoves;
+        ByteBuffer latest = checkpoint;
+        return () -> encodeJournal(seed, width, height, chambers, moves, latest, actions);
+    }
 
-        this.avatarPos.Y -= 1;
-        this.currentTile = world[this.avatarPos.X][this.avatarPos.Y];
-        world[this.avatarPos.X][this.avatarPos.Y] = new TETile(Tileset.AVATAR.character(),
-                Tileset.AVATAR.textColor(),
-                world[this.avatarPos.X][this.avatarPos.Y].backgroundColor(),
-                Tileset.AVATAR.description());
+    /**
+     * Reads the world saved by saveWorld.
+     * @return the saved world, or null if it cannot be read
+     */
+    public static World readWorld() {
+        return readWorld(savePath());
     }
 
-    public void moveLeft() {
-        if (world[this.avatarPos.X - 1][this.avatarPos.Y].character() == Tileset.WALL.character()) {
-            return;
+    /**
+     * Reads a world saved to path, telling journals and snapshots apart by
+     * their magic number.
+     * @return the saved world, or null if it cannot be read
+     */
+    public static World readWorld(Path path) {
+        try {
+            ByteBuffer buffer = SaveFile.read(path);
+            if (buffer.remaining() >= 4 && buffer.getInt(0) == JOURNAL_MAGIC) {
+                return decodeJournal(buffer);
+            }
+            return decode(buffer);
+        } catch (IOException | RuntimeException excp) {
+            System.out.println(excp.getMessage());
+            return null;
         }
-        world[this.avatarPos.X][this.avatarPos.Y] = this.currentTile;
-
-        this.avatarPos.X -= 1;
-        this.currentTile = world[this.avatarPos.X][this.avatarPos.Y];
-        world[this.avatarPos.X][this.avatarPos.Y] = new TETile(Tileset.AVATAR.character(),
-                Tileset.AVATAR.textColor(),
-                world[this.avatarPos.X][this.avatarPos.Y].backgroundColor(),
-                Tileset.AVATAR.description());
     }
 
-    public void moveRight() {
-        if (world[this.avatarPos.X + 1][this.avatarPos.Y].character() == Tileset.WALL.character()) {
-            return;
+    /**
+     * Encodes the world as a journal: magic, version, seed, width, height,
+     * the chamber count it was generated with, the number of avatar moves
+     * before the latest checkpoint, the checkpoint's snapshot as a
+     * variable-length byte count and the bytes (count 0 if there is none
+     * yet), and the action log since the checkpoint.
+     */
+    private static ByteBuffer encodeJournal(long seed, int width, int height, int chambers,
+                                            int checkpointMoves, ByteBuffer checkpoint,
+                                            ReplayLog log) {
+        ByteBuffer snapshot = checkpoint == null ? null : checkpoint.duplicate();
+        int snapshotSize = snapshot == null ? 0 : snapshot.remaining();
+        int size = 4 + 2 + 8 + 4 + 4 + 4 + SaveFile.varIntSize(checkpointMoves)
+                + SaveFile.varIntSize(snapshotSize) + snapshotSize + log.byteSize();
+
+        ByteBuffer buffer = ByteBuffer.allocateDirect(size);
+        buffer.putInt(JOURNAL_MAGIC).putShort(JOURNAL_VERSION);
+        buffer.putLong(seed);
+        buffer.putInt(width).putInt(height).putInt(chambers);
+        SaveFile.putVarInt(buffer, checkpointMoves);
+        SaveFile.putVarInt(buffer, snapshotSize);
+        if (snapshot != null) {
+            buffer.put(snapshot);
         }
-        world[this.avatarPos.X][this.avatarPos.Y] = this.currentTile;
-
-        this.avatarPos.X += 1;
-        this.currentTile = world[this.avatarPos.X][this.avatarPos.Y];
-        world[this.avatarPos.X][this.avatarPos.Y] = new TETile(Tileset.AVATAR.character(),
-                Tileset.AVATAR.textColor(),
-                world[this.avatarPos.X][this.avatarPos.Y].backgroundColor(),
-                Tileset.AVATAR.description());
+        log.write(buffer);
+        buffer.flip();
+        return buffer;
     }
 
-    public void turnLight() {
-        Chamber lightedChamber = chambers[chambers.length / 2];
-        if (world[lightedChamber.getX()][lightedChamber.getY()].backgroundColor() != Color.BLACK) {
-            turnOffLight();
+    /**
+     * Rebuilds a world from a journal: loads the checkpoint, or generates the
+     * world from its seed if there is none, then replays the actions after
+     * it. At most about CHECKPOINT_INTERVAL actions are replayed.
+     */
+    private static World decodeJournal(ByteBuffer buffer) throws IOException {
+        buffer.getInt();
+        short version = buffer.getShort();
+        if (version != JOURNAL_VERSION) {
+            throw new IOException("Unsupported save version " + version + ".");
+        }
+        long seed = buffer.getLong();
+        int width = buffer.getInt();
+        int height = buffer.getInt();
+        int chambers = buffer.getInt();
+        int moves = SaveFile.getVarInt(buffer);
+        int snapshotSize = SaveFile.getVarInt(buffer);
+        if (moves < 0 || snapshotSize < 0 || snapshotSize > buffer.remaining()) {
+            throw new IOException("Corrupt checkpoint in save file.");
+        }
+
+        World w;
+        ByteBuffer snapshot = null;
+        if (snapshotSize > 0) {
+            snapshot = ByteBuffer.allocateDirect(snapshotSize);
+            ByteBuffer slice = buffer.slice();
+            slice.limit(snapshotSize);
+            snapshot.put(slice).flip();
+            buffer.position(buffer.position() + snapshotSize);
+            w = decode(snapshot.duplicate());
         } else {
-            turnOnLight();
+            w = chambers == -1 ? new World(width, height, seed)
+                    : new World(width, height, seed, chambers);
         }
+        ReplayLog actions = ReplayLog.read(buffer);
+        w.replay(actions);
+        w.log = actions;
+        w.generationChambers = chambers;
+        w.checkpoint = snapshot;
+        w.checkpointMoves = moves;
+        return w;
     }
 
+    /**
+     * Returns the path of previousWorld.txt, which holds the latest save,
+     * whether it came from saveWorld or from a SaveStore slot.
+     */
+    public static Path savePath() {
+        return Paths.get(System.getProperty("user.dir"), "previousWorld.txt");
+    }
 
-    public void turnOnLight() {
-        Chamber lightedChamber = chambers[chambers.length / 2];
-
-        int up = lightedChamber.getY() + (lightedChamber.getHeight() + 1) / 2;
-        int bottom = lightedChamber.getY() - lightedChamber.getHeight() / 2;
-        int left = lightedChamber.getX() - lightedChamber.getWidth() / 2;
-        int right = lightedChamber.getX() + (lightedChamber.getWidth() + 1) / 2;
-
-        int lightX = lightedChamber.getX();
-        int lightY = lightedChamber.getY();
+    /**
+     * Encodes the world into a direct buffer sized exactly to fit, ready to be
+     * written. In order: magic, version, seed, random state, width, height,
+     * the chamber table, the avatar, the first monster's current cell (the
+     * chase path's target), every monster, the light sources, the spawn
+     * pools built so far, the trail as gaps between its cells, and the tile
+     * ids as runs (see SaveFile).
+     * Lighting and every cache are rebuilt on load.
+     */
+    private ByteBuffer encode() {
+        int pools = 0;
+        int poolSize = 0;
+        for (int i = 0; spawnPools != null && i < spawnPools.length; i++) {
+            if (spawnPools[i] != null) {
+                pools += 1;
+                poolSize += SaveFile.varIntSize(i) + spawnPools[i].byteSize();
+            }
+        }
+        poolSize += SaveFile.varIntSize(pools);
 
-        for (int i = left + 1; i < right; i++) {
-            for (int j = bottom + 1; j < up; j++) {
-                int distance = Math.max(Math.abs(lightX - i), Math.abs(lightY - j));
-                world[i][j] = TETile.darkenBackgroundColor(world[i][j], distance);
+        int trailCells = trail.cardinality();
+        int trailSize = SaveFile.varIntSize(trailCells);
+        for (int v = trail.nextSetBit(0), prev = 0; v >= 0; prev = v + 1, v = trail.nextSetBit(v + 1)) {
+            trailSize += SaveFile.varIntSize(v - prev);
+        }
+        int size = 4 + 2 + 8 + 8 + 4 + 4
+                + 4 + chamberCount * 16
+                + 16
+                + 4 + monsters.size() * 8
+                + lights.byteSize()
+                + poolSize
+                + trailSize
+                + SaveFile.runsSize(world);
+
+        ByteBuffer buffer = ByteBuffer.allocateDirect(size);
+        buffer.putInt(SAVE_MAGIC).putShort(SAVE_VERSION);
+        buffer.putLong(seed).putLong(random.state());
+        buffer.putInt(world.width()).putInt(world.height());
+        buffer.putInt(chamberCount);
+        for (int i = 0; i < chamberCount; i++) {
+            Chamber c = chambers[i];
+            buffer.putInt(c.getX()).putInt(c.getY()).putInt(c.getWidth()).putInt(c.getHeight());
+        }
+        buffer.putInt(avatarPos.X).putInt(avatarPos.Y);
+        buffer.putInt(monsterPos.X).putInt(monsterPos.Y);
+        buffer.putInt(monsters.size());
+        for (int i = 0; i < monsters.size(); i++) {
+            buffer.putInt(monsters.x(i)).putInt(monsters.y(i));
+        }
+        lights.write(buffer);
+        SaveFile.putVarInt(buffer, pools);
+        for (int i = 0; spawnPools != null && i < spawnPools.length; i++) {
+            if (spawnPools[i] != null) {
+                SaveFile.putVarInt(buffer, i);
+                spawnPools[i].write(buffer);
             }
         }
+        SaveFile.putVarInt(buffer, trailCells);
+        for (int v = trail.nextSetBit(0), prev = 0; v >= 0; prev = v + 1, v = trail.nextSetBit(v + 1)) {
+            SaveFile.putVarInt(buffer, v - prev);
+        }
+        SaveFile.putRuns(buffer, world);
+        buffer.flip();
+        return buffer;
     }
 
-    public void turnOffLight() {
-        Chamber lightedChamber = chambers[chambers.length / 2];
-
-        int up = lightedChamber.getY() + (lightedChamber.getHeight() + 1) / 2;
-        int bottom = lightedChamber.getY() - lightedChamber.getHeight() / 2;
-        int left = lightedChamber.getX() - lightedChamber.getWidth() / 2;
-        int right = lightedChamber.getX() + (lightedChamber.getWidth() + 1) / 2;
+    /** Rebuilds a world from a buffer filled by encode. */
+    private static World decode(ByteBuffer buffer) throws IOException {
+        if (buffer.remaining() < 6 || buffer.getInt() != SAVE_MAGIC) {
+            throw new IOException("Not a saved world.");
+        }
+        short version = buffer.getShort();
+        if (version != SAVE_VERSION) {
+            throw new IOException("Unsupported save version " + version + ".");
+        }
+        long seed = buffer.getLong();
+        StatefulRandom random = new StatefulRandom(seed);
+        random.setState(buffer.getLong());
+        int width = buffer.getInt();
+        int height = buffer.getInt();
+        int chamberCount = buffer.getInt();
+        if (width <= 0 || height <= 0 || (long) width * height > Integer.MAX_VALUE
+                || chamberCount <= 0 || chamberCount > buffer.remaining() / 16) {
+            throw new IOException("Corrupt header in save file.");
+        }
 
-        for (int i = left + 1; i < right; i++) {
-            for (int j = bottom + 1; j < up; j++) {
-                world[i][j] = new TETile(world[i][j].character(),
-                        world[i][j].textColor(),
-                        Color.BLACK,
-                        world[i][j].description());
+        World w = new World(seed, random, new TileGrid(width, height), chamberCount);
+        for (int i = 0; i < chamberCount; i++) {
+            Chamber c = w.new Chamber(buffer.getInt(), buffer.getInt(),
+                    buffer.getInt(), buffer.getInt());
+            if (left(c) < 0 || bottom(c) < 0 || right(c) >= width || up(c) >= height
+                    || c.getWidth() < 2 || c.getHeight() < 2) {
+                throw new IOException("Chamber outside the world in save file.");
             }
+            w.chambers[i] = c;
         }
-    }
-
-    public void saveWorld() {
-        World w = new World(random, world, chamberCount,
-                MAX_CHAMBER_NUM, chambers, avatarPos, monsterPos, currentTile);
-        File outFile = Paths.get(System.getProperty("user.dir"), "previousWorld.txt").toFile();
-        try {
-            ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(outFile));
-            out.writeObject(w);
-            out.close();
-        } catch (IOException excp) {
-            System.out.println(excp.getMessage());
+        w.avatarPos = w.readPos(buffer);
+        w.monsterPos = w.readPos(buffer);
+        int monsterCount = buffer.getInt();
+        if (monsterCount < 0 || monsterCount > buffer.remaining() / 8) {
+            throw new IOException("Corrupt monster table in save file.");
+        }
+        w.monsters = new MonsterSwarm(width, height);
+        for (int i = 0; i < monsterCount; i++) {
+            Pos p = w.readPos(buffer);
+            w.monsters.add(p.X, p.Y);
+        }
+        w.lights = LightMap.read(buffer, width, height);
+        int pools = SaveFile.getVarInt(buffer);
+        int[][] poolOrders = new int[chamberCount][];
+        for (int k = 0; k < pools; k++) {
+            int i = SaveFile.getVarInt(buffer);
+            if (i < 0 || i >= chamberCount) {
+                throw new IOException("Corrupt spawn pool in save file.");
+            }
+            poolOrders[i] = SpawnPool.read(buffer);
+        }
+        int trailCells = SaveFile.getVarInt(buffer);
+        for (int i = 0, v = -1; i < trailCells; i++) {
+            v += 1 + SaveFile.getVarInt(buffer);
+            if (v >= width * height) {
+                throw new IOException("Corrupt trail in save file.");
+            }
+            w.trail.set(v);
         }
+        SaveFile.getRuns(buffer, w.world);
+        w.lights.relightAll(w.world);
+        /* Pools collect their cells from the grid, so they come after it. */
+        for (int i = 0; i < chamberCount; i++) {
+            if (poolOrders[i] != null) {
+                w.spawnPool(i).reorder(poolOrders[i]);
+            }
+        }
+        return w;
     }
 
-
-    /**
-     * Reads in and deserializes a commit from a file with SHA-1 sha1 in COMMIT_FOLDER.
-     *
-     * @return Commit read from file
-     */
-    public static World readWorld() {
-        File inFile = Paths.get(System.getProperty("user.dir"), "previousWorld.txt").toFile();
-        try {
-            ObjectInputStream inp = new ObjectInputStream(new FileInputStream(inFile));
-            World w = (World) inp.readObject();
-            inp.close();
-            return w;
-        } catch (IOException | ClassNotFoundException excp) {
-            System.out.println(excp.getMessage());
-            World w = null;
-            return w;
+    private Pos readPos(ByteBuffer buffer) throws IOException {
+        int x = buffer.getInt();
+        int y = buffer.getInt();
+        if (!world.inBounds(x, y)) {
+            throw new IOException("Position outside the world in save file.");
         }
+        return new Pos(x, y);
     }
 
 }
@@ -0,0 +1,146 @@
+package byow.Core;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Consumer;
+
+/* Generates worlds for many seeds in parallel on a ForkJoinPool, for checking
+   large seed catalogs. A range of seeds is split in halves until pieces of
+   LEAF_SIZE seeds remain, and each piece generates its worlds one after the
+   other. Every World has its own Random, and nothing else it uses during
+   generation is shared, so each world is exactly the world sequential
+   generation gives for the same seed.
+
+   Worlds are not kept. Only a Result with a hash of the tile grid and a few
+   statistics is passed on, so memory stays flat however many seeds are
+   checked. */
+public class WorldBatch {
+    private static final int LEAF_SIZE = 8;
+
+    /* Summary of one generated world. */
+    public static class Result {
+        private final long seed;
+        private final long hash;
+        private final int chambers;
+        private final int floors;
+        private final boolean solvable;
+
+        Result(long seed, World world) {
+            this.seed = seed;
+            this.hash = world.contentHash();
+            this.chambers = world.getChamberCount();
+            this.floors = world.floorCount();
+            this.solvable = world.isDoorReachable();
+        }
+
+        public long seed() {
+            return seed;
+        }
+
+        /* Hash of the generated tile grid; see TileGrid.contentHash. */
+        public long hash() {
+            return hash;
+        }
+
+        public int chambers() {
+            return chambers;
+        }
+
+        public int floors() {
+            return floors;
+        }
+
+        /* True if the avatar can reach the door. */
+        public boolean solvable() {
+            return solvable;
+        }
+
+        public String toString() {
+            return seed + " " + Long.toHexString(hash) + " chambers=" + chambers
+                    + " floors=" + floors + " solvable=" + solvable;
+        }
+    }
+
+    private final int width;
+    private final int height;
+    private final ForkJoinPool pool;
+
+    /* Creates a batch generator for WIDTH x HEIGHT worlds on the common pool. */
+    public WorldBatch(int width, int height) {
+        this(width, height, ForkJoinPool.commonPool());
+    }
+
+    /* Creates a batch generator for WIDTH x HEIGHT worlds on POOL. */
+    public WorldBatch(int width, int height, ForkJoinPool pool) {
+        this.width = width;
+        this.height = height;
+        this.pool = pool;
+    }
+
+    /* Generates the world for every seed from FROM (inclusive) to TO
+       (exclusive) and passes each result to CONSUMER. CONSUMER is called from
+       the pool's threads, possibly at the same time and in any order. */
+    public void forEach(long from, long to, Consumer<Result> consumer) {
+        pool.invoke(new Task(null, from, null, consumer, 0, Math.max(0, to - from)));
+    }
+
+    /* Generates the world for every seed in SEEDS and passes each result to
+       CONSUMER, with the same threading as forEach over a range. */
+    public void forEach(long[] seeds, Consumer<Result> consumer) {
+        pool.invoke(new Task(seeds, 0, null, consumer, 0, seeds.length));
+    }
+
+    /* Generates the world for every seed in SEEDS and returns the results in
+       the same order as the seeds. */
+    public Result[] generate(long[] seeds) {
+        Result[] results = new Result[seeds.length];
+        pool.invoke(new Task(seeds, 0, results, null, 0, seeds.length));
+        return results;
+    }
+
+    /* Generates the world for one seed. */
+    public Result generate(long seed) {
+        return new Result(seed, new World(width, height, seed));
+    }
+
+    /* Handles positions LO to HI of a job. The seed at position i is SEEDS[i],
+       or BASE + i when SEEDS is null. Results go to RESULTS[i] if RESULTS is
+       not null, and to CONSUMER otherwise. */
+    @SuppressWarnings("serial")
+    private class Task extends RecursiveAction {
+        private final long[] seeds;
+        private final long base;
+        private final Result[] results;
+        private final Consumer<Result> consumer;
+        private final long lo;
+        private final long hi;
+
+        Task(long[] seeds, long base, Result[] results, Consumer<Result> consumer,
+             long lo, long hi) {
+            this.seeds = seeds;
+            this.base = base;
+            this.results = results;
+            this.consumer = consumer;
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        @Override
+        protected void compute() {
+            if (hi - lo > LEAF_SIZE) {
+                long mid = lo + (hi - lo) / 2;
+                invokeAll(new Task(seeds, base, results, consumer, lo, mid),
+                        new Task(seeds, base, results, consumer, mid, hi));
+                return;
+            }
+            for (long i = lo; i < hi; i++) {
+                Result r = generate(seeds == null ? base + i : seeds[(int) i]);
+                if (results != null) {
+                    results[(int) i] = r;
+                } else {
+                    consumer.accept(r);
+                }
+            }
+        }
+    }
+}
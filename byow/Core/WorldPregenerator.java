@@ -0,0 +1,56 @@
+package byow.Core;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/* Builds worlds on a background thread so they are ready by the time the game
+   needs them. The menu submits the world as soon as the seed is known and
+   only waits on the Future once the player has picked a mode, so generation
+   overlaps with the time spent in the mode menu.
+
+   Worlds are built one at a time on a single daemon thread, which never keeps
+   the program alive on exit. World generation only touches the World being
+   built, so building off the drawing thread is safe. */
+public class WorldPregenerator {
+    private final ExecutorService executor;
+
+    public WorldPregenerator() {
+        this.executor = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "world-pregenerator");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /* Starts building a WIDTH x HEIGHT world for SEED and returns its Future. */
+    public Future<World> submit(int width, int height, long seed) {
+        return executor.submit(() -> new World(width, height, seed));
+    }
+
+    /* Waits for PENDING and returns its world. An exception thrown while
+       building the world is rethrown as is. */
+    public static World await(Future<World> pending) {
+        try {
+            return pending.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while generating the world.", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    /* Stops the worker thread once the worlds already submitted are built. */
+    public void shutdown() {
+        executor.shutdown();
+    }
+}
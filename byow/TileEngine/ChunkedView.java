@@ -0,0 +1,121 @@
+package byow.TileEngine;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Builds the TETile[][] shown in a Viewport from a TileGrid, one chunk at a time.
+ *
+ * Each TileGrid chunk that intersects the viewport is turned into a
+ * CHUNK_SIZE x CHUNK_SIZE block of tiles. The block is cached and rebuilt only when
+ * the chunk's version changes. The visible part of each block is then copied to the
+ * screen array a column at a time. The cost of a frame depends on the size of the
+ * viewport, never on the size of the world.
+ *
+ * Cached blocks are kept in least-recently-used order, and blocks beyond
+ * maxChunks are dropped, so the chunks the camera has left behind can be
+ * garbage collected.
+ */
+public class ChunkedView {
+    private static final int CHUNK_SIZE = TileGrid.CHUNK_SIZE;
+    private static final int CHUNK_SHIFT = TileGrid.CHUNK_SHIFT;
+
+    private static class Chunk {
+        private final TETile[][] tiles = new TETile[CHUNK_SIZE][CHUNK_SIZE];
+        private int version;
+        private boolean built;
+    }
+
+    private final TileGrid grid;
+    private final Map<Integer, Chunk> chunks;
+
+    /**
+     * Creates a view of grid that caches at most maxChunks chunks.
+     * @param grid the tiles to show
+     * @param maxChunks upper bound on cached chunks; should cover at least one screen
+     */
+    public ChunkedView(TileGrid grid, int maxChunks) {
+        this.grid = grid;
+        this.chunks = new LinkedHashMap<Integer, Chunk>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Chunk> eldest) {
+                return size() > maxChunks;
+            }
+        };
+    }
+
+    /**
+     * Returns the number of chunks needed to cover a viewport of width x height
+     * tiles in any position, which is a sensible lower bound for maxChunks.
+     */
+    public static int chunksPerScreen(int width, int height) {
+        return ((width >> CHUNK_SHIFT) + 2) * ((height >> CHUNK_SHIFT) + 2);
+    }
+
+    /**
+     * Fills out, which must be viewport.width() x viewport.height(), with the
+     * tiles under viewport. Screen cells beyond the edge of the world show
+     * NOTHING.
+     * @return out
+     */
+    public TETile[][] render(Viewport viewport, TETile[][] out) {
+        int x0 = viewport.x();
+        int y0 = viewport.y();
+        int x1 = Math.min(x0 + viewport.width(), grid.width());
+        int y1 = Math.min(y0 + viewport.height(), grid.height());
+
+        for (int cx = x0 >> CHUNK_SHIFT; cx <= (x1 - 1) >> CHUNK_SHIFT; cx++) {
+            for (int cy = y0 >> CHUNK_SHIFT; cy <= (y1 - 1) >> CHUNK_SHIFT; cy++) {
+                TETile[][] tiles = chunk(cx, cy);
+                int baseX = cx << CHUNK_SHIFT;
+                int baseY = cy << CHUNK_SHIFT;
+                int fromY = Math.max(y0, baseY);
+                int toY = Math.min(y1, baseY + CHUNK_SIZE);
+                int toX = Math.min(x1, baseX + CHUNK_SIZE);
+                for (int x = Math.max(x0, baseX); x < toX; x++) {
+                    System.arraycopy(tiles[x - baseX], fromY - baseY,
+                            out[x - x0], fromY - y0, toY - fromY);
+                }
+            }
+        }
+
+        /* Only reached when the world is smaller than the viewport. */
+        for (int sx = 0; sx < viewport.width(); sx++) {
+            int fromY = sx < x1 - x0 ? y1 - y0 : 0;
+            for (int sy = fromY; sy < viewport.height(); sy++) {
+                out[sx][sy] = Tileset.NOTHING;
+            }
+        }
+        return out;
+    }
+
+    /** Returns the number of chunks currently cached. */
+    public int cachedChunks() {
+        return chunks.size();
+    }
+
+    private TETile[][] chunk(int cx, int cy) {
+        int key = cx * grid.chunksY() + cy;
+        Chunk c = chunks.get(key);
+        if (c == null) {
+            c = new Chunk();
+            chunks.put(key, c);
+        }
+        int version = grid.chunkVersion(cx, cy);
+        if (!c.built || c.version != version) {
+            int baseX = cx << CHUNK_SHIFT;
+            int baseY = cy << CHUNK_SHIFT;
+            int toX = Math.min(grid.width(), baseX + CHUNK_SIZE);
+            int toY = Math.min(grid.height(), baseY + CHUNK_SIZE);
+            for (int x = baseX; x < toX; x++) {
+                TETile[] column = c.tiles[x - baseX];
+                for (int y = baseY; y < toY; y++) {
+                    column[y - baseY] = grid.tile(x, y);
+                }
+            }
+            c.version = version;
+            c.built = true;
+        }
+        return c.tiles;
+    }
+}
@@ -0,0 +1,128 @@
+package byow.TileEngine;
+
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A cache of pre-rasterized tiles. Each distinct (character, text color, background
+ * color) combination is drawn once into a TILE_SIZE x TILE_SIZE BufferedImage, and
+ * after that drawing a tile is a copy of its pixels instead of a filled square plus a
+ * text layout. HeadlessRenderer copies them into its frame buffer.
+ *
+ * Sprites for the fixed Tileset tiles are kept for as long as the atlas lives. Any
+ * other combination, such as the lit tiles made by TETile.darkenBackgroundColor, goes
+ * into a least-recently-used cache of at most MAX_DYNAMIC sprites.
+ *
+ * TERenderer does not use the atlas: StdDraw can only draw images it loads by file
+ * name, so handing it sprites would cost more than drawing the tiles directly.
+ */
+public class GlyphAtlas {
+    public static final int TILE_SIZE = 16;
+
+    /* Upper bound on the number of sprites kept for tiles outside the Tileset. */
+    public static final int MAX_DYNAMIC = 256;
+
+    private static final Font FONT = new Font("Monaco", Font.BOLD, TILE_SIZE - 2);
+
+    private static final TETile[] PINNED = {
+        Tileset.AVATAR, Tileset.WALL, Tileset.FLOOR, Tileset.NOTHING, Tileset.GRASS,
+        Tileset.WATER, Tileset.FLOWER, Tileset.LOCKED_DOOR, Tileset.UNLOCKED_DOOR,
+        Tileset.SAND, Tileset.MOUNTAIN, Tileset.TREE
+    };
+
+    /** A rasterized tile. */
+    public static class Sprite {
+        private final BufferedImage image;
+        private int[] pixels;
+
+        Sprite(BufferedImage image) {
+            this.image = image;
+        }
+
+        public BufferedImage image() {
+            return image;
+        }
+
+        /** Returns the sprite's ARGB pixels, row by row from the top left corner. */
+        public int[] pixels() {
+            if (pixels == null) {
+                pixels = image.getRGB(0, 0, TILE_SIZE, TILE_SIZE, null, 0, TILE_SIZE);
+            }
+            return pixels;
+        }
+    }
+
+    private final Map<Long, Sprite> pinned = new HashMap<>();
+    private final Map<Long, Sprite> dynamic = new LinkedHashMap<Long, Sprite>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, Sprite> eldest) {
+            return size() > MAX_DYNAMIC;
+        }
+    };
+
+    /** Creates an atlas with the Tileset tiles already rasterized. */
+    public GlyphAtlas() {
+        for (TETile t : PINNED) {
+            pinned.put(key(t), new Sprite(rasterize(t)));
+        }
+    }
+
+    /**
+     * Returns the sprite for tile T, rasterizing it on first use.
+     * @param t the tile
+     * @return the cached sprite
+     */
+    public Sprite sprite(TETile t) {
+        long key = key(t);
+        Sprite s = pinned.get(key);
+        if (s != null) {
+            return s;
+        }
+        s = dynamic.get(key);
+        if (s == null) {
+            s = new Sprite(rasterize(t));
+            dynamic.put(key, s);
+        }
+        return s;
+    }
+
+    /** Returns the number of sprites currently cached. */
+    public int size() {
+        return pinned.size() + dynamic.size();
+    }
+
+    private static long key(TETile t) {
+        return ((long) t.character() << 48)
+                | ((long) (t.textColor().getRGB() & 0xFFFFFF) << 24)
+                | (t.backgroundColor().getRGB() & 0xFFFFFF);
+    }
+
+    /* Draws T the way TETile.draw does: background square, then the character
+       centered horizontally with its baseline lowered by the font's descent. */
+    private static BufferedImage rasterize(TETile t) {
+        BufferedImage image = new BufferedImage(TILE_SIZE, TILE_SIZE,
+                BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = image.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING,
+                RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+        g.setColor(t.backgroundColor());
+        g.fillRect(0, 0, TILE_SIZE, TILE_SIZE);
+
+        String text = String.valueOf(t.character());
+        g.setFont(FONT);
+        FontMetrics metrics = g.getFontMetrics();
+        int ws = metrics.stringWidth(text);
+        int hs = metrics.getDescent();
+        g.setColor(t.textColor());
+        g.drawString(text, (TILE_SIZE - ws) / 2f, TILE_SIZE / 2f + hs);
+        g.dispose();
+        return image;
+    }
+}
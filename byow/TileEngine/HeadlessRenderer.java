@@ -0,0 +1,150 @@
+package byow.TileEngine;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * A renderer that needs no display. Frames are drawn into an int[] frame buffer of
+ * ARGB pixels, one GlyphAtlas.TILE_SIZE square per tile, by copying each tile's
+ * sprite pixels row by row. The buffer can then be saved as a PNG or appended to a
+ * stream of raw frames, which makes it suitable for rendering many seeds in batch
+ * jobs on machines without a screen.
+ *
+ * Like TERenderer, only tiles whose reference changed since the previous frame are
+ * copied again. Tiles that come with their own image file are drawn from their
+ * character and colors.
+ */
+public class HeadlessRenderer implements Renderer {
+    private static final int TILE_SIZE = GlyphAtlas.TILE_SIZE;
+    private static final int BACKGROUND = 0xFF000000;
+
+    private final GlyphAtlas atlas = new GlyphAtlas();
+
+    private int xOffset;
+    private int yOffset;
+    private int pixelWidth;
+    private int pixelHeight;
+
+    /* The pixels of image, shared with it, so PNG output needs no copy. */
+    private BufferedImage image;
+    private int[] pixels;
+    private byte[] rawBytes;
+
+    private TETile[][] lastFrame;
+
+    @Override
+    public void initialize(int w, int h, int xOff, int yOff) {
+        this.xOffset = xOff;
+        this.yOffset = yOff;
+        this.pixelWidth = w * TILE_SIZE;
+        this.pixelHeight = h * TILE_SIZE;
+        this.image = new BufferedImage(pixelWidth, pixelHeight, BufferedImage.TYPE_INT_ARGB);
+        this.pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        this.rawBytes = null;
+        this.lastFrame = null;
+        Arrays.fill(pixels, BACKGROUND);
+    }
+
+    @Override
+    public void initialize(int w, int h) {
+        initialize(w, h, 0, 0);
+    }
+
+    /**
+     * Draws world into the frame buffer. Tiles that fall outside the surface are
+     * skipped.
+     * @param world the 2D TETile[][] array to render
+     */
+    @Override
+    public void renderFrame(TETile[][] world) {
+        int numXTiles = world.length;
+        int numYTiles = world[0].length;
+        if (lastFrame == null || lastFrame.length != numXTiles
+                || lastFrame[0].length != numYTiles) {
+            Arrays.fill(pixels, BACKGROUND);
+            lastFrame = new TETile[numXTiles][numYTiles];
+        }
+
+        for (int x = 0; x < numXTiles; x += 1) {
+            TETile[] column = world[x];
+            TETile[] lastColumn = lastFrame[x];
+            for (int y = 0; y < numYTiles; y += 1) {
+                TETile tile = column[y];
+                if (tile == null) {
+                    throw new IllegalArgumentException("Tile at position x=" + x + ", y=" + y
+                            + " is null.");
+                }
+                if (tile != lastColumn[y]) {
+                    blit(atlas.sprite(tile).pixels(), x + xOffset, y + yOffset);
+                    lastColumn[y] = tile;
+                }
+            }
+        }
+    }
+
+    /** Forces every tile to be copied again by the next frame. */
+    public void invalidate() {
+        lastFrame = null;
+    }
+
+    /**
+     * Returns the frame buffer: ARGB pixels, row by row from the top left corner.
+     * The array is live and is overwritten by the next frame.
+     */
+    public int[] pixels() {
+        return pixels;
+    }
+
+    public int pixelWidth() {
+        return pixelWidth;
+    }
+
+    public int pixelHeight() {
+        return pixelHeight;
+    }
+
+    /**
+     * Saves the current frame as a PNG image.
+     * @param file the file to write
+     */
+    public void writePng(File file) throws IOException {
+        if (!ImageIO.write(image, "png", file)) {
+            throw new IOException("No PNG writer available.");
+        }
+    }
+
+    /**
+     * Appends the current frame to out as pixelWidth() * pixelHeight() big-endian
+     * ARGB ints, in the same order as pixels(). Frames carry no header, so a stream
+     * of them can be split again using the surface size.
+     * @param out the stream to write to
+     */
+    public void writeRawFrame(OutputStream out) throws IOException {
+        if (rawBytes == null) {
+            rawBytes = new byte[pixels.length * 4];
+        }
+        ByteBuffer.wrap(rawBytes).asIntBuffer().put(pixels);
+        out.write(rawBytes);
+    }
+
+    /* Copies a tile's sprite to tile position (tx, ty). Tile rows count up from
+       the bottom of the surface while pixel rows count down from the top. */
+    private void blit(int[] sprite, int tx, int ty) {
+        int px = tx * TILE_SIZE;
+        int py = pixelHeight - (ty + 1) * TILE_SIZE;
+        if (px < 0 || py < 0 || px + TILE_SIZE > pixelWidth || py + TILE_SIZE > pixelHeight) {
+            return;
+        }
+        int dst = py * pixelWidth + px;
+        for (int row = 0; row < TILE_SIZE; row += 1) {
+            System.arraycopy(sprite, row * TILE_SIZE, pixels, dst, TILE_SIZE);
+            dst += pixelWidth;
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package byow.TileEngine;
+
+/**
+ * Something that can show a TETile[][] world, one frame at a time. TERenderer draws
+ * to a StdDraw window, and HeadlessRenderer draws to an in-memory frame buffer that
+ * needs no display.
+ */
+public interface Renderer {
+    /**
+     * Prepares a surface of w x h tiles. Frames are drawn starting xOff tiles from
+     * the left and yOff tiles from the bottom.
+     * @param w width of the surface in tiles
+     * @param h height of the surface in tiles
+     * @param xOff x offset of the first tile
+     * @param yOff y offset of the first tile
+     */
+    void initialize(int w, int h, int xOff, int yOff);
+
+    /**
+     * Prepares a surface of w x h tiles with no offset.
+     * @param w width of the surface in tiles
+     * @param h height of the surface in tiles
+     */
+    void initialize(int w, int h);
+
+    /**
+     * Draws world and presents it.
+     * @param world the 2D TETile[][] array to render
+     */
+    void renderFrame(TETile[][] world);
+}
@@ -12,13 +12,20 @@ import java.io.Serializable;
  * messing with this renderer, unless you're trying to do something fancy like
  * allowing scrolling of the screen or tracking the avatar or something similar.
  */
-public class TERenderer implements Serializable {
+public class TERenderer implements Serializable, Renderer {
     private static final int TILE_SIZE = 16;
+    private static final Font TILE_FONT = new Font("Monaco", Font.BOLD, TILE_SIZE - 2);
+    private static final Color BACKGROUND = new Color(0, 0, 0);
     private int width;
     private int height;
     private int xOffset;
     private int yOffset;
 
+    /* The tile last drawn at each position, or null if that position has to be
+       redrawn. TETiles are immutable, so a cell whose tile reference has not
+       changed since the last frame is already correct on screen. */
+    private transient TETile[][] lastFrame;
+
     /**
      * Same functionality as the other initialization method. The only difference is that the xOff
      * and yOff parameters will change where the renderFrame method starts drawing. For example,
@@ -34,12 +41,12 @@ public class TERenderer implements Serializable {
         this.xOffset = xOff;
         this.yOffset = yOff;
         StdDraw.setCanvasSize(width * TILE_SIZE, height * TILE_SIZE);
-        Font font = new Font("Monaco", Font.BOLD, TILE_SIZE - 2);
-        StdDraw.setFont(font);      
+        StdDraw.setFont(TILE_FONT);
         StdDraw.setXscale(0, width);
         StdDraw.setYscale(0, height);
 
-        StdDraw.clear(new Color(0, 0, 0));
+        StdDraw.clear(BACKGROUND);
+        lastFrame = null;
 
         StdDraw.enableDoubleBuffering();
         StdDraw.show();
@@ -82,25 +89,73 @@ public class TERenderer implements Serializable {
      * This method assumes that the xScale and yScale have been set such that the max x
      * value is the width of the screen in tiles, and the max y value is the height of
      * the screen in tiles.
+     *
+     * Only tiles that differ from the previously rendered frame are redrawn; see drawTiles.
      * @param world the 2D TETile[][] array to render
      */
     public void renderFrame(TETile[][] world) {
-        Font font = new Font("Monaco", Font.BOLD, TILE_SIZE - 2);
-        StdDraw.setFont(font);
+        drawTiles(world);
+        StdDraw.show();
+    }
+
+    /**
+     * Draws WORLD to the offscreen buffer without showing it, so callers can add
+     * text on top and present everything with a single StdDraw.show(). The last
+     * drawn frame is remembered, and only cells whose tile changed since then
+     * are drawn again. The first frame, or a frame of a different size, clears
+     * the canvas and draws every tile.
+     * @param world the 2D TETile[][] array to draw
+     */
+    public void drawTiles(TETile[][] world) {
+        StdDraw.setFont(TILE_FONT);
 
         int numXTiles = world.length;
         int numYTiles = world[0].length;
-        StdDraw.clear(new Color(0, 0, 0));
+        if (lastFrame == null || lastFrame.length != numXTiles
+                || lastFrame[0].length != numYTiles) {
+            StdDraw.clear(BACKGROUND);
+            lastFrame = new TETile[numXTiles][numYTiles];
+        }
+
         for (int x = 0; x < numXTiles; x += 1) {
+            TETile[] column = world[x];
+            TETile[] lastColumn = lastFrame[x];
             for (int y = 0; y < numYTiles; y += 1) {
-                if (world[x][y] == null) {
+                TETile tile = column[y];
+                if (tile == null) {
                     throw new IllegalArgumentException("Tile at position x=" + x + ", y=" + y
                             + " is null.");
                 }
-                world[x][y].draw(x + xOffset, y + yOffset);
+                if (tile != lastColumn[y]) {
+                    tile.draw(x + xOffset, y + yOffset);
+                    lastColumn[y] = tile;
+                }
             }
         }
+    }
 
-        StdDraw.show();
+    /**
+     * Forces every tile to be redrawn by the next frame, e.g. after something
+     * else has drawn over the canvas.
+     */
+    public void invalidate() {
+        lastFrame = null;
+    }
+
+    /**
+     * Forces the tiles with x0 <= x < x1 and y0 <= y < y1 to be redrawn by the
+     * next frame, e.g. because text was drawn on top of them.
+     */
+    public void invalidate(int x0, int y0, int x1, int y1) {
+        if (lastFrame == null) {
+            return;
+        }
+        int xEnd = Math.min(x1, lastFrame.length);
+        int yEnd = Math.min(y1, lastFrame[0].length);
+        for (int x = Math.max(x0, 0); x < xEnd; x += 1) {
+            for (int y = Math.max(y0, 0); y < yEnd; y += 1) {
+                lastFrame[x][y] = null;
+            }
+        }
     }
 }
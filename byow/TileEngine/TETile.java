@@ -155,14 +155,30 @@ public class TETile implements Serializable {
     }
 
     /**
-     * Darken color.
+     * LIGHT_FALLOFF[k] is the light background darkened k times. Past the end
+     * of the table the color has already faded to black, which darker() keeps.
      */
-    public static TETile darkenBackgroundColor(TETile t, int degree) {
+    private static final Color[] LIGHT_FALLOFF = new Color[32];
+    static {
         Color color = Color.BLUE.brighter().brighter().brighter();
-        for (int i = 0; i < degree; i++) {
+        for (int i = 0; i < LIGHT_FALLOFF.length; i++) {
+            LIGHT_FALLOFF[i] = color;
             color = color.darker();
         }
-        return new TETile(t.character, t.textColor, color, t.description);
+    }
+
+    /**
+     * Returns the light background darkened degree times, from a table built once.
+     */
+    public static Color lightColor(int degree) {
+        return LIGHT_FALLOFF[Math.min(Math.max(degree, 0), LIGHT_FALLOFF.length - 1)];
+    }
+
+    /**
+     * Darken color.
+     */
+    public static TETile darkenBackgroundColor(TETile t, int degree) {
+        return new TETile(t.character, t.textColor, lightColor(degree), t.description);
     }
 
     /**
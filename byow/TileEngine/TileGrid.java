@@ -0,0 +1,492 @@
+package byow.TileEngine;
+
+import java.util.Arrays;
+
+/**
+ * A compact tile map. Instead of a TETile reference per cell, the grid stores a
+ * one-byte tile id per cell in a single flat array indexed by x * height + y,
+ * plus a parallel byte channel for background light. Ids index into a fixed
+ * palette of Tileset tiles, and the lit variant of every (id, light) pair is
+ * built once and then shared, so writing to the grid never allocates.
+ *
+ * Two bitmasks, one bit per cell by flat index, are kept in step with the ids:
+ * walkable has a bit for every cell that is not WALL, and floor one for every
+ * FLOOR cell. Movement, path finding and placement test a single bit, and
+ * range queries such as anyWalkable look at 64 cells per word.
+ *
+ * TETile[][] views for the renderer or for callers that need the old
+ * representation are only produced on request, through toTiles.
+ */
+public class TileGrid {
+    public static final byte NOTHING = 0;
+    public static final byte WALL = 1;
+    public static final byte FLOOR = 2;
+    public static final byte AVATAR = 3;
+    public static final byte MONSTER = 4;
+    public static final byte TREE = 5;
+    public static final byte LOCKED_DOOR = 6;
+    public static final byte UNLOCKED_DOOR = 7;
+    public static final byte GRASS = 8;
+    public static final byte WATER = 9;
+    public static final byte FLOWER = 10;
+    public static final byte SAND = 11;
+
+    /* The tile drawn for each id when the cell is not lit. */
+    private static final TETile[] PALETTE = {
+        Tileset.NOTHING, Tileset.WALL, Tileset.FLOOR, Tileset.AVATAR, Tileset.MOUNTAIN,
+        Tileset.TREE, Tileset.LOCKED_DOOR, Tileset.UNLOCKED_DOOR, Tileset.GRASS,
+        Tileset.WATER, Tileset.FLOWER, Tileset.SAND
+    };
+
+    /* Light intensity runs from 0 (unlit) to MAX_LIGHT (full brightness).
+       Each step below MAX_LIGHT darkens the light background once more. */
+    public static final int MAX_LIGHT = 127;
+
+    /* LIT[id][level] is the shared tile for id at that light intensity. Level
+       0 is the palette tile itself. The table is filled once, so lighting and
+       drawing never allocate tiles. */
+    private static final TETile[][] LIT = new TETile[PALETTE.length][MAX_LIGHT + 1];
+    static {
+        for (int id = 0; id < PALETTE.length; id++) {
+            LIT[id][0] = PALETTE[id];
+            for (int level = 1; level <= MAX_LIGHT; level++) {
+                LIT[id][level] = TETile.darkenBackgroundColor(PALETTE[id], MAX_LIGHT - level);
+            }
+        }
+    }
+
+    /* The grid is divided into CHUNK_SIZE x CHUNK_SIZE chunks for rendering.
+       Every write bumps the version of its chunk, so cached views of a chunk
+       know when they are out of date. */
+    public static final int CHUNK_SHIFT = 4;
+    public static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+
+    private final int width;
+    private final int height;
+    private final byte[] ids;
+    private final byte[] light;
+
+    /* Bit v of walkable / floor describes flat index v. */
+    private final long[] walkable;
+    private final long[] floor;
+
+    private final int chunksX;
+    private final int chunksY;
+    private final int[] chunkVersion;
+
+    /* Creates a WIDTH x HEIGHT grid filled with NOTHING and no light. */
+    public TileGrid(int width, int height) {
+        this.width = width;
+        this.height = height;
+        this.ids = new byte[width * height];
+        this.light = new byte[width * height];
+        this.chunksX = (width + CHUNK_SIZE - 1) >> CHUNK_SHIFT;
+        this.chunksY = (height + CHUNK_SIZE - 1) >> CHUNK_SHIFT;
+        this.chunkVersion = new int[chunksX * chunksY];
+        int words = (width * height + 63) >>> 6;
+        this.walkable = new long[words];
+        this.floor = new long[words];
+        Arrays.fill(walkable, -1L);
+        clearTail();
+    }
+
+    public int width() {
+        return width;
+    }
+
+    public int height() {
+        return height;
+    }
+
+    /* Returns the flat index of cell (X, Y). */
+    public int index(int x, int y) {
+        return x * height + y;
+    }
+
+    /* Returns true if (X, Y) lies on the grid. */
+    public boolean inBounds(int x, int y) {
+        return x >= 0 && x < width && y >= 0 && y < height;
+    }
+
+    public byte get(int x, int y) {
+        return ids[x * height + y];
+    }
+
+    /* Returns the tile id at flat index V. */
+    public byte get(int v) {
+        return ids[v];
+    }
+
+    public void set(int x, int y, byte id) {
+        int v = x * height + y;
+        ids[v] = id;
+        mark(v, id);
+        touch(x, y);
+    }
+
+    /* Sets flat indices FROM (inclusive) to TO (exclusive) to ID. */
+    public void setRun(int from, int to, byte id) {
+        Arrays.fill(ids, from, to, id);
+        setBits(walkable, from, to, id != WALL);
+        setBits(floor, from, to, id == FLOOR);
+        touchRange(from / height, 0, (to - 1) / height, height - 1);
+    }
+
+    /* Returns true if (X, Y) is on the grid and not a wall, so the avatar,
+       monsters and path searches may enter it. */
+    public boolean isWalkable(int x, int y) {
+        if (!inBounds(x, y)) {
+            return false;
+        }
+        int v = x * height + y;
+        return (walkable[v >>> 6] & (1L << v)) != 0;
+    }
+
+    /* Returns true if flat index V is not a wall. */
+    public boolean isWalkable(int v) {
+        return (walkable[v >>> 6] & (1L << v)) != 0;
+    }
+
+    /* Returns true if (X, Y) is on the grid and FLOOR. */
+    public boolean isFloor(int x, int y) {
+        if (!inBounds(x, y)) {
+            return false;
+        }
+        int v = x * height + y;
+        return (floor[v >>> 6] & (1L << v)) != 0;
+    }
+
+    /* Returns true if flat index V is FLOOR. */
+    public boolean isFloor(int v) {
+        return (floor[v >>> 6] & (1L << v)) != 0;
+    }
+
+    /* Returns true if some cell of column X from row Y0 to row Y1, both
+       included, is walkable. Cells of a column are adjacent in the flat
+       layout, so this tests up to 64 cells per step. */
+    public boolean anyWalkable(int x, int y0, int y1) {
+        return anySet(walkable, x * height + y0, x * height + y1 + 1);
+    }
+
+    /* Returns true if some cell of column X from row Y0 to row Y1, both
+       included, is FLOOR. */
+    public boolean anyFloor(int x, int y0, int y1) {
+        return anySet(floor, x * height + y0, x * height + y1 + 1);
+    }
+
+    /* Returns true if some cell of the rectangle L..R x B..U, bounds
+       included, is FLOOR. */
+    public boolean anyFloor(int l, int b, int r, int u) {
+        for (int x = l; x <= r; x++) {
+            if (anyFloor(x, b, u)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /* Returns the first flat index at or after FROM that is FLOOR, or -1. */
+    public int nextFloor(int from) {
+        int w = from >>> 6;
+        if (w >= floor.length) {
+            return -1;
+        }
+        long word = floor[w] & (-1L << from);
+        while (word == 0) {
+            w += 1;
+            if (w == floor.length) {
+                return -1;
+            }
+            word = floor[w];
+        }
+        return (w << 6) + Long.numberOfTrailingZeros(word);
+    }
+
+    /* Returns the number of FLOOR cells. */
+    public int floorCount() {
+        int n = 0;
+        for (long word : floor) {
+            n += Long.bitCount(word);
+        }
+        return n;
+    }
+
+    /* Returns the light intensity at (X, Y); 0 means unlit. */
+    public int light(int x, int y) {
+        return light[x * height + y];
+    }
+
+    public void setLight(int x, int y, int level) {
+        light[x * height + y] = (byte) Math.min(level, MAX_LIGHT);
+        touch(x, y);
+    }
+
+    /* Sets the light of every cell of L..R x B..U, bounds included, to 0. */
+    public void clearLight(int l, int b, int r, int u) {
+        for (int x = l; x <= r; x++) {
+            Arrays.fill(light, x * height + b, x * height + u + 1, (byte) 0);
+        }
+        touchRange(l, b, r, u);
+    }
+
+    /* Adds the light of a source at (SX, SY) with intensity STRENGTH to every
+       cell of L..R x B..U, bounds included. A cell at Chebyshev distance d
+       from the source gains STRENGTH - d, if that is positive, and sums
+       saturate at MAX_LIGHT, so overlapping sources blend additively in any
+       order. */
+    public void addLight(int sx, int sy, int strength, int l, int b, int r, int u) {
+        for (int x = l; x <= r; x++) {
+            int base = x * height;
+            int dx = Math.abs(x - sx);
+            for (int y = b; y <= u; y++) {
+                int c = strength - Math.max(dx, Math.abs(y - sy));
+                if (c > 0) {
+                    int sum = light[base + y] + c;
+                    light[base + y] = (byte) (sum > MAX_LIGHT ? MAX_LIGHT : sum);
+                }
+            }
+        }
+        touchRange(l, b, r, u);
+    }
+
+    /* Sets every cell to ID and clears all light. */
+    public void fill(byte id) {
+        Arrays.fill(ids, id);
+        Arrays.fill(light, (byte) 0);
+        Arrays.fill(walkable, id != WALL ? -1L : 0L);
+        Arrays.fill(floor, id == FLOOR ? -1L : 0L);
+        clearTail();
+        for (int i = 0; i < chunkVersion.length; i++) {
+            chunkVersion[i] += 1;
+        }
+    }
+
+    /* Carves a hallway along row Y from column X0 to column X1, both
+       included, visiting the cells in that order. See carveSpan. */
+    public void carveRow(int y, int x0, int x1) {
+        if (!inBounds(x0, y) || !inBounds(x1, y)) {
+            throw new IllegalArgumentException("Hallway leaves the grid: row "
+                    + y + " from " + x0 + " to " + x1);
+        }
+        int dir = x1 >= x0 ? 1 : -1;
+        carveSpan(x0 * height + y, Math.abs(x1 - x0), dir * height, 1,
+                y > 0, y < height - 1,
+                x0 - dir >= 0 && x0 - dir < width, x1 + dir >= 0 && x1 + dir < width);
+        touchRange(Math.min(x0, x1) - 1, y - 1, Math.max(x0, x1) + 1, y + 1);
+    }
+
+    /* Carves a hallway along column X from row Y0 to row Y1, both included,
+       visiting the cells in that order. See carveSpan. */
+    public void carveColumn(int x, int y0, int y1) {
+        if (!inBounds(x, y0) || !inBounds(x, y1)) {
+            throw new IllegalArgumentException("Hallway leaves the grid: column "
+                    + x + " from " + y0 + " to " + y1);
+        }
+        int dir = y1 >= y0 ? 1 : -1;
+        carveSpan(x * height + y0, Math.abs(y1 - y0), dir, height,
+                x > 0, x < width - 1,
+                y0 - dir >= 0 && y0 - dir < height, y1 + dir >= 0 && y1 + dir < height);
+        touchRange(x - 1, Math.min(y0, y1) - 1, x + 1, Math.max(y0, y1) + 1);
+    }
+
+    /* Carves the LENGTH + 1 cells from flat index START, STEP apart. A cell
+       that is already floor with at least two floor neighbors is inside a room
+       or hallway and is left alone. Any other cell becomes FLOOR, and its two
+       neighbors across the hallway, SIDE away, become WALL unless they are
+       floor. HASLOW and HASHIGH tell whether those side neighbors are on the
+       grid, and HASBEFORE and HASAFTER whether the cells just past the two
+       ends are. Neighbors off the grid count as empty and are never written.
+
+       Whether the two side neighbors are floor is kept as a two-bit mask,
+       which decides both whether the cell is inside and which side gets a
+       wall. The cell behind the current one is always floor once it has been
+       visited, so only the first cell has to look behind it. */
+    private void carveSpan(int start, int length, int step, int side,
+                           boolean hasLow, boolean hasHigh,
+                           boolean hasBefore, boolean hasAfter) {
+        int v = start;
+        for (int k = 0; k <= length; k++, v += step) {
+            int sides = (hasLow && isFloor(v - side) ? 1 : 0)
+                    | (hasHigh && isFloor(v + side) ? 2 : 0);
+            if (isFloor(v)) {
+                int behind = k > 0 || hasBefore && isFloor(v - step) ? 1 : 0;
+                int ahead = (k < length || hasAfter) && isFloor(v + step) ? 1 : 0;
+                if (behind + ahead + Integer.bitCount(sides) >= 2) {
+                    continue;
+                }
+            }
+            ids[v] = FLOOR;
+            mark(v, FLOOR);
+            if (hasLow && (sides & 1) == 0) {
+                ids[v - side] = WALL;
+                mark(v - side, WALL);
+            }
+            if (hasHigh && (sides & 2) == 0) {
+                ids[v + side] = WALL;
+                mark(v + side, WALL);
+            }
+        }
+    }
+
+    /* Returns the number of cells holding ID. */
+    public int count(byte id) {
+        int n = 0;
+        for (byte b : ids) {
+            if (b == id) {
+                n += 1;
+            }
+        }
+        return n;
+    }
+
+    /* Returns a 64-bit FNV-1a hash of the size, tile ids and light levels, so
+       two grids with the same hash almost certainly look the same. */
+    public long contentHash() {
+        long h = 0xcbf29ce484222325L;
+        h = (h ^ width) * 0x100000001b3L;
+        h = (h ^ height) * 0x100000001b3L;
+        for (byte b : ids) {
+            h = (h ^ (b & 0xFF)) * 0x100000001b3L;
+        }
+        for (byte b : light) {
+            h = (h ^ (b & 0xFF)) * 0x100000001b3L;
+        }
+        return h;
+    }
+
+    /* Returns the number of chunk columns. */
+    public int chunksX() {
+        return chunksX;
+    }
+
+    /* Returns the number of chunk rows. */
+    public int chunksY() {
+        return chunksY;
+    }
+
+    /* Returns a counter that changes whenever a cell in chunk (CX, CY) is
+       written. */
+    public int chunkVersion(int cx, int cy) {
+        return chunkVersion[cx * chunksY + cy];
+    }
+
+    /* Bumps the version of every chunk that overlaps X0..X1 x Y0..Y1, clipped
+       to the grid. */
+    private void touchRange(int x0, int y0, int x1, int y1) {
+        int cx1 = Math.min(x1, width - 1) >> CHUNK_SHIFT;
+        int cy1 = Math.min(y1, height - 1) >> CHUNK_SHIFT;
+        for (int cx = Math.max(x0, 0) >> CHUNK_SHIFT; cx <= cx1; cx++) {
+            for (int cy = Math.max(y0, 0) >> CHUNK_SHIFT; cy <= cy1; cy++) {
+                chunkVersion[cx * chunksY + cy] += 1;
+            }
+        }
+    }
+
+    /* Updates the walkable and floor bits of flat index V for tile ID. */
+    private void mark(int v, byte id) {
+        int w = v >>> 6;
+        long bit = 1L << v;
+        if (id != WALL) {
+            walkable[w] |= bit;
+        } else {
+            walkable[w] &= ~bit;
+        }
+        if (id == FLOOR) {
+            floor[w] |= bit;
+        } else {
+            floor[w] &= ~bit;
+        }
+    }
+
+    /* Returns true if BITS has a bit set from FROM (inclusive) to TO
+       (exclusive). */
+    private static boolean anySet(long[] bits, int from, int to) {
+        if (from >= to) {
+            return false;
+        }
+        int first = from >>> 6;
+        int last = (to - 1) >>> 6;
+        long firstMask = -1L << from;
+        long lastMask = -1L >>> -to;
+        if (first == last) {
+            return (bits[first] & firstMask & lastMask) != 0;
+        }
+        if ((bits[first] & firstMask) != 0) {
+            return true;
+        }
+        for (int w = first + 1; w < last; w++) {
+            if (bits[w] != 0) {
+                return true;
+            }
+        }
+        return (bits[last] & lastMask) != 0;
+    }
+
+    /* Sets bits FROM (inclusive) to TO (exclusive) of BITS to VALUE, a word
+       at a time. */
+    private static void setBits(long[] bits, int from, int to, boolean value) {
+        if (from >= to) {
+            return;
+        }
+        int first = from >>> 6;
+        int last = (to - 1) >>> 6;
+        long firstMask = -1L << from;
+        long lastMask = -1L >>> -to;
+        if (first == last) {
+            long mask = firstMask & lastMask;
+            bits[first] = value ? bits[first] | mask : bits[first] & ~mask;
+            return;
+        }
+        bits[first] = value ? bits[first] | firstMask : bits[first] & ~firstMask;
+        Arrays.fill(bits, first + 1, last, value ? -1L : 0L);
+        bits[last] = value ? bits[last] | lastMask : bits[last] & ~lastMask;
+    }
+
+    /* Clears the bits past the last cell, so whole-word scans never see
+       them. */
+    private void clearTail() {
+        int used = ids.length & 63;
+        if (used != 0) {
+            walkable[walkable.length - 1] &= -1L >>> (64 - used);
+            floor[floor.length - 1] &= -1L >>> (64 - used);
+        }
+    }
+
+    private void touch(int x, int y) {
+        chunkVersion[(x >> CHUNK_SHIFT) * chunksY + (y >> CHUNK_SHIFT)] += 1;
+    }
+
+    /* Returns the shared tile currently shown at (X, Y). */
+    public TETile tile(int x, int y) {
+        int v = x * height + y;
+        return tileOf(ids[v], light[v]);
+    }
+
+    /* Returns the shared tile for ID at light LEVEL. */
+    public static TETile tileOf(byte id, int level) {
+        return LIT[id][level];
+    }
+
+    /* Returns the palette tile for ID. */
+    public static TETile paletteTile(byte id) {
+        return PALETTE[id];
+    }
+
+    /* Returns a new TETile[][] view of the grid. */
+    public TETile[][] toTiles() {
+        return toTiles(new TETile[width][height]);
+    }
+
+    /* Writes the grid into OUT, which must be width x height, and returns it. */
+    public TETile[][] toTiles(TETile[][] out) {
+        int v = 0;
+        for (int x = 0; x < width; x++) {
+            TETile[] column = out[x];
+            for (int y = 0; y < height; y++) {
+                column[y] = tileOf(ids[v], light[v]);
+                v += 1;
+            }
+        }
+        return out;
+    }
+}
@@ -0,0 +1,86 @@
+package byow.TileEngine;
+
+/**
+ * A camera onto a world that may be larger than the screen. The viewport is
+ * width x height tiles, and its lower left corner sits at (x(), y()) in world
+ * coordinates. It never moves past the edges of the world, and when the world is
+ * smaller than the viewport it stays at the origin.
+ *
+ * follow keeps a target, usually the avatar, inside the viewport with a margin
+ * of a quarter of the screen on every side. The view only scrolls when the
+ * target walks into that margin, so most moves leave the rest of the screen
+ * untouched.
+ */
+public class Viewport {
+    private final int width;
+    private final int height;
+    private final int worldWidth;
+    private final int worldHeight;
+    private int x;
+    private int y;
+
+    /**
+     * Creates a viewport of width x height tiles over a worldWidth x worldHeight
+     * world, with its corner at the origin.
+     */
+    public Viewport(int width, int height, int worldWidth, int worldHeight) {
+        this.width = width;
+        this.height = height;
+        this.worldWidth = worldWidth;
+        this.worldHeight = worldHeight;
+    }
+
+    public int width() {
+        return width;
+    }
+
+    public int height() {
+        return height;
+    }
+
+    /** Returns the world x coordinate shown in the leftmost screen column. */
+    public int x() {
+        return x;
+    }
+
+    /** Returns the world y coordinate shown in the bottom screen row. */
+    public int y() {
+        return y;
+    }
+
+    /** Moves the viewport so that (tx, ty) is at its center, as far as the world allows. */
+    public void center(int tx, int ty) {
+        x = clamp(tx - width / 2, worldWidth - width);
+        y = clamp(ty - height / 2, worldHeight - height);
+    }
+
+    /**
+     * Scrolls the viewport just enough to keep (tx, ty) at least a quarter of the
+     * screen away from every edge, as far as the world allows.
+     */
+    public void follow(int tx, int ty) {
+        int marginX = width / 4;
+        int marginY = height / 4;
+        if (tx < x + marginX) {
+            x = tx - marginX;
+        } else if (tx >= x + width - marginX) {
+            x = tx - width + marginX + 1;
+        }
+        if (ty < y + marginY) {
+            y = ty - marginY;
+        } else if (ty >= y + height - marginY) {
+            y = ty - height + marginY + 1;
+        }
+        x = clamp(x, worldWidth - width);
+        y = clamp(y, worldHeight - height);
+    }
+
+    /** Returns true if world cell (wx, wy) is on screen. */
+    public boolean contains(int wx, int wy) {
+        return wx >= x && wx < x + width && wy >= y && wy < y + height;
+    }
+
+    private static int clamp(int v, int max) {
+        return Math.max(0, Math.min(v, max));
+    }
+}